@@ -0,0 +1,48 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Constrained LP on a single synthetic model of growing size. It only runs
+ * on the smaller models of ScalingBenchmark, the basis factorization grows
+ * with the state count squared.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class ConstrainedScalingBenchmark {
+	@Param({"100", "1000"})
+	public int states;
+
+	@Param({"0.9", "0.95", "0.99"})
+	public double discount;
+
+	private Object algorithm;
+	private Object cmdps;
+
+	@Setup
+	public void setup() throws Throwable {
+		algorithm = Planner.planningAlgorithm();
+		cmdps = Planner.agents(Planner.randomModel(states, 5, 4, discount, 42L));
+	}
+
+	@Benchmark
+	public Object solveConstrained() throws Throwable {
+		return Planner.solve(algorithm, cmdps, 10.0);
+	}
+}
@@ -0,0 +1,61 @@
+package benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Model loading: user models from UserGenerator and synthetic models from the
+ * memory-mapped binary format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadingBenchmark {
+
+	@Param({"1000", "100000"})
+	public int states;
+
+	private File binaryFile;
+
+	@Setup
+	public void setup() throws Throwable {
+		binaryFile = File.createTempFile("model", ".bin");
+		Planner.writeBinary(Planner.randomModel(states, 5, 4, 0.95, 42L), binaryFile.getPath());
+	}
+
+	@TearDown
+	public void tearDown() {
+		binaryFile.delete();
+	}
+
+	@Benchmark
+	public Object childModel() throws Throwable {
+		return Planner.child();
+	}
+
+	@Benchmark
+	public Object adultModel() throws Throwable {
+		return Planner.adult();
+	}
+
+	@Benchmark
+	public Object readBinary() throws Throwable {
+		return Planner.readBinary(binaryFile.getPath());
+	}
+}
@@ -0,0 +1,204 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.util.Random;
+
+/**
+ * Access to the planner classes. They live in the unnamed package, which
+ * cannot be imported from here and is not supported by the JMH generator, so
+ * every call goes through a method handle resolved once at class load.
+ */
+final class Planner {
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+	static final Class<?> CMDP = load("CMDP");
+	private static final Class<?> SOLUTION = load("Solution");
+	private static final Class<?> PLANNING_ALGORITHM = load("PlanningAlgorithm");
+	private static final Class<?> SIMULATOR = load("Simulator");
+	private static final Class<?> SIMULATION_RESULT = load("SimulationResult");
+	private static final Class<?> PROBABILITY_SAMPLE = load("ProbabilitySample");
+	private static final Class<?> DISCRETE_SAMPLER = load("DiscreteSampler");
+	private static final Class<?> GENERATOR = load("SyntheticModelGenerator");
+	private static final Class<?> CMDP_ARRAY = Array.newInstance(CMDP, 0).getClass();
+
+	private static final MethodHandle GET_CHILD = findStatic("UserGenerator", "getCMDPChild", CMDP);
+	private static final MethodHandle GET_ADULT = findStatic("UserGenerator", "getCMDPAdult", CMDP);
+	private static final MethodHandle ASSIGN_COST = findVirtual(CMDP, "assignCost", void.class, int.class, int.class, double.class);
+	private static final MethodHandle COPY = findVirtual(CMDP, "copy", CMDP);
+	private static final MethodHandle NUM_STATES = findVirtual(CMDP, "getNumStates", int.class);
+	private static final MethodHandle NUM_ACTIONS = findVirtual(CMDP, "getNumActions", int.class);
+	private static final MethodHandle NEW_GENERATOR = findConstructor(GENERATOR, int.class, int.class, int.class, double.class, long.class);
+	private static final MethodHandle GENERATE = findVirtual(GENERATOR, "generate", CMDP);
+
+	private static final MethodHandle NEW_PLANNING_ALGORITHM = findConstructor(PLANNING_ALGORITHM);
+	private static final MethodHandle SOLVE = findVirtual(PLANNING_ALGORITHM, "solve", SOLUTION, CMDP_ARRAY, double.class);
+	private static final MethodHandle SOLVE_UNCONSTRAINED = findVirtual(PLANNING_ALGORITHM, "solveUnconstrained", SOLUTION, CMDP_ARRAY);
+	private static final MethodHandle SOLVE_VI = findVirtual(PLANNING_ALGORITHM, "solveVI", SOLUTION, CMDP_ARRAY, double.class);
+
+	private static final MethodHandle NEW_SIMULATOR = findConstructor(SIMULATOR, Random.class);
+	private static final MethodHandle SIMULATE = findVirtual(SIMULATOR, "simulate", SIMULATION_RESULT, CMDP_ARRAY, SOLUTION, int.class, long.class);
+	private static final MethodHandle MEAN_REWARD = findVirtual(SIMULATION_RESULT, "getMeanReward", double.class);
+
+	private static final MethodHandle NEW_PROBABILITY_SAMPLE = findConstructor(PROBABILITY_SAMPLE, Random.class);
+	private static final MethodHandle ADD_ITEM = findVirtual(PROBABILITY_SAMPLE, "addItem", void.class, int.class, double.class);
+	private static final MethodHandle SAMPLE_ITEM = findVirtual(PROBABILITY_SAMPLE, "sampleItem", int.class);
+	private static final MethodHandle SAMPLER_OF = findStatic("DiscreteSampler", "of", DISCRETE_SAMPLER, double[].class);
+	private static final MethodHandle SAMPLER_SAMPLE = findVirtual(DISCRETE_SAMPLER, "sample", int.class, double.class);
+
+	private static final MethodHandle WRITE_BINARY = findStatic("BinaryModelFormat", "write", void.class, CMDP, String.class);
+	private static final MethodHandle READ_BINARY = findStatic("BinaryModelFormat", "read", CMDP, String.class);
+
+	private Planner() {
+	}
+
+	static Object child() throws Throwable {
+		return GET_CHILD.invoke();
+	}
+
+	static Object adult() throws Throwable {
+		return GET_ADULT.invoke();
+	}
+
+	/**
+	 * Population as in Homework.task5, children and adults with cost 2a per action
+	 * @param agents number of agents
+	 * @param ratio children per adult
+	 * @return CMDP[] of the agents
+	 */
+	static Object population(int agents, double ratio) throws Throwable {
+		Object child = child();
+		Object adult = adult();
+		assignActionCosts(child);
+		assignActionCosts(adult);
+
+		int children = (int) Math.floor(agents * ratio / (1 + ratio));
+		Object cmdps = Array.newInstance(CMDP, agents);
+		for (int i = 0; i < agents; i++) {
+			Array.set(cmdps, i, COPY.invoke(i < children ? child : adult));
+		}
+		return cmdps;
+	}
+
+	/**
+	 * Model of SyntheticModelGenerator with its default rewards, costs and absorbing state
+	 */
+	static Object randomModel(int states, int actions, int branching, double discount, long seed) throws Throwable {
+		return GENERATE.invoke(NEW_GENERATOR.invoke(states, actions, branching, discount, seed));
+	}
+
+	static Object agents(Object... models) {
+		Object cmdps = Array.newInstance(CMDP, models.length);
+		for (int i = 0; i < models.length; i++) {
+			Array.set(cmdps, i, models[i]);
+		}
+		return cmdps;
+	}
+
+	static Object planningAlgorithm() throws Throwable {
+		return NEW_PLANNING_ALGORITHM.invoke();
+	}
+
+	static Object solve(Object algorithm, Object cmdps, double costLimit) throws Throwable {
+		return SOLVE.invoke(algorithm, cmdps, costLimit);
+	}
+
+	static Object solveUnconstrained(Object algorithm, Object cmdps) throws Throwable {
+		return SOLVE_UNCONSTRAINED.invoke(algorithm, cmdps);
+	}
+
+	static Object solveVI(Object algorithm, Object cmdps, double discount) throws Throwable {
+		return SOLVE_VI.invoke(algorithm, cmdps, discount);
+	}
+
+	static Object simulator(long seed) throws Throwable {
+		return NEW_SIMULATOR.invoke(new Random(seed));
+	}
+
+	/**
+	 * Seeded parallel simulation
+	 * @return mean reward of the runs
+	 */
+	static double simulate(Object simulator, Object cmdps, Object solution, int runs, long seed) throws Throwable {
+		Object result = SIMULATE.invoke(simulator, cmdps, solution, runs, seed);
+		return (double) MEAN_REWARD.invoke(result);
+	}
+
+	static Object probabilitySample(Random random) throws Throwable {
+		return NEW_PROBABILITY_SAMPLE.invoke(random);
+	}
+
+	static void addItem(Object sample, int item, double probability) throws Throwable {
+		ADD_ITEM.invoke(sample, item, probability);
+	}
+
+	static int sampleItem(Object sample) throws Throwable {
+		return (int) SAMPLE_ITEM.invoke(sample);
+	}
+
+	static Object discreteSampler(double[] weights) throws Throwable {
+		return SAMPLER_OF.invoke(weights);
+	}
+
+	static int sample(Object sampler, double u) throws Throwable {
+		return (int) SAMPLER_SAMPLE.invoke(sampler, u);
+	}
+
+	static void writeBinary(Object cmdp, String fileName) throws Throwable {
+		WRITE_BINARY.invoke(cmdp, fileName);
+	}
+
+	static Object readBinary(String fileName) throws Throwable {
+		return READ_BINARY.invoke(fileName);
+	}
+
+	static int numStates(Object cmdp) throws Throwable {
+		return (int) NUM_STATES.invoke(cmdp);
+	}
+
+	static int numActions(Object cmdp) throws Throwable {
+		return (int) NUM_ACTIONS.invoke(cmdp);
+	}
+
+	private static void assignActionCosts(Object cmdp) throws Throwable {
+		for (int s = 0; s < numStates(cmdp); s++) {
+			for (int a = 0; a < numActions(cmdp); a++) {
+				ASSIGN_COST.invoke(cmdp, s, a, 2.0 * a);
+			}
+		}
+	}
+
+	private static Class<?> load(String name) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException("Planner class " + name + " is not on the class path", e);
+		}
+	}
+
+	private static MethodHandle findStatic(String owner, String name, Class<?> returnType, Class<?>... parameters) {
+		try {
+			return LOOKUP.findStatic(load(owner), name, MethodType.methodType(returnType, parameters));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static MethodHandle findVirtual(Class<?> owner, String name, Class<?> returnType, Class<?>... parameters) {
+		try {
+			return LOOKUP.findVirtual(owner, name, MethodType.methodType(returnType, parameters));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static MethodHandle findConstructor(Class<?> owner, Class<?>... parameters) {
+		try {
+			return LOOKUP.findConstructor(owner, MethodType.methodType(void.class, parameters));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
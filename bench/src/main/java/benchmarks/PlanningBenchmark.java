@@ -0,0 +1,61 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Planning latency on populations of child and adult users as in
+ * Homework.task5, with a budget of 10 per agent.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PlanningBenchmark {
+
+	@Param({"10", "100", "1000"})
+	public int agents;
+
+	@Param({"0.25", "1", "4"})
+	public double childAdultRatio;
+
+	@Param({"0.95"})
+	public double discount;
+
+	private Object algorithm;
+	private Object cmdps;
+
+	@Setup
+	public void setup() throws Throwable {
+		algorithm = Planner.planningAlgorithm();
+		cmdps = Planner.population(agents, childAdultRatio);
+	}
+
+	@Benchmark
+	public Object solve() throws Throwable {
+		return Planner.solve(algorithm, cmdps, 10.0 * agents);
+	}
+
+	@Benchmark
+	public Object solveUnconstrained() throws Throwable {
+		return Planner.solveUnconstrained(algorithm, cmdps);
+	}
+
+	@Benchmark
+	public Object solveVI() throws Throwable {
+		return Planner.solveVI(algorithm, cmdps, discount);
+	}
+}
@@ -0,0 +1,60 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Draws from a discrete distribution, building a ProbabilitySample per draw
+ * as the old simulator did versus reusing a prebuilt DiscreteSampler.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SamplingBenchmark {
+
+	@Param({"5", "15", "1000"})
+	public int support;
+
+	private double[] weights;
+	private Random random;
+	private Object sampler;
+
+	@Setup
+	public void setup() throws Throwable {
+		random = new Random(1L);
+		weights = new double[support];
+		for (int i = 0; i < support; i++) {
+			weights[i] = 1.0 / support;
+		}
+		sampler = Planner.discreteSampler(weights);
+	}
+
+	@Benchmark
+	public int probabilitySample() throws Throwable {
+		Object sample = Planner.probabilitySample(random);
+		for (int i = 0; i < support; i++) {
+			Planner.addItem(sample, i, weights[i]);
+		}
+		return Planner.sampleItem(sample);
+	}
+
+	@Benchmark
+	public int discreteSampler() throws Throwable {
+		return Planner.sample(sampler, random.nextDouble());
+	}
+}
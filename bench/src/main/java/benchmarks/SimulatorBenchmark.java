@@ -0,0 +1,50 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Monte Carlo evaluation of a planned population, 1000 runs per invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimulatorBenchmark {
+	private static final int RUNS = 1000;
+
+	@Param({"2", "20", "200"})
+	public int agents;
+
+	@Param({"0.25", "1", "4"})
+	public double childAdultRatio;
+
+	private Object simulator;
+	private Object cmdps;
+	private Object solution;
+
+	@Setup
+	public void setup() throws Throwable {
+		cmdps = Planner.population(agents, childAdultRatio);
+		solution = Planner.solve(Planner.planningAlgorithm(), cmdps, 10.0 * agents);
+		simulator = Planner.simulator(1L);
+	}
+
+	@Benchmark
+	public double simulate() throws Throwable {
+		return Planner.simulate(simulator, cmdps, solution, RUNS, 1L);
+	}
+}
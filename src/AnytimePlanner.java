@@ -0,0 +1,114 @@
+
+/**
+ * Constrained planner with bounded response time. It runs the column
+ * generation of LagrangianSolver until a deadline and answers with the best
+ * plan found so far, which respects the budget in expectation, together with
+ * an upper bound on the optimal expected reward. Later calls resume where the
+ * previous call stopped, so the answer keeps improving until it is optimal.
+ * A planner is not thread-safe.
+ */
+public class AnytimePlanner {
+	private final LagrangianSolver solver;
+
+	/**
+	 * Create a planner, no work is done before the first call of plan
+	 * @param cmdps agents
+	 * @param costLimit budget shared by all agents
+	 */
+	public AnytimePlanner(CMDP[] cmdps, double costLimit) {
+		this.solver = new LagrangianSolver(cmdps, costLimit);
+	}
+
+	/**
+	 * Improve the plan for about the given time. No round is started after
+	 * the limit, but a started round is finished and the first call always
+	 * computes a feasible plan, so a call can take longer than the limit.
+	 * @param timeLimitMillis wall-clock time limit in milliseconds
+	 * @return best plan so far
+	 */
+	public Result plan(long timeLimitMillis) {
+		// limits that overflow the clock mean no deadline
+		long now = System.nanoTime();
+		long deadline = Long.MAX_VALUE;
+		if(timeLimitMillis <= (Long.MAX_VALUE - Math.max(now, 0L)) / 1000000L) {
+			deadline = now + timeLimitMillis * 1000000L;
+		}
+		solver.improve(deadline, Integer.MAX_VALUE);
+		return result();
+	}
+
+	/**
+	 * Improve the plan for at most the given number of column generation rounds
+	 * @param rounds maximum number of rounds
+	 * @return best plan so far
+	 */
+	public Result planRounds(int rounds) {
+		solver.improve(Long.MAX_VALUE, rounds);
+		return result();
+	}
+
+	private Result result() {
+		Solution solution = solver.getSolution();
+		double upperBound = Math.max(solver.getUpperBound(), solution.getExpectedReward());
+		return new Result(solution, upperBound, solver.getCostLimit() - solution.getExpectedCost(), solver.isConverged(), solver.getRounds());
+	}
+
+	/**
+	 * Plan with its optimality gap and budget slack
+	 */
+	public static class Result {
+		private final Solution solution;
+		private final double upperBound;
+		private final double slack;
+		private final boolean optimal;
+		private final int rounds;
+
+		public Result(Solution solution, double upperBound, double slack, boolean optimal, int rounds) {
+			this.solution = solution;
+			this.upperBound = upperBound;
+			this.slack = slack;
+			this.optimal = optimal;
+			this.rounds = rounds;
+		}
+
+		public Solution getSolution() {
+			return solution;
+		}
+
+		/**
+		 * Get upper bound on the optimal expected reward
+		 * @return upper bound
+		 */
+		public double getUpperBound() {
+			return upperBound;
+		}
+
+		/**
+		 * Get difference between the upper bound and the expected reward of the plan
+		 * @return optimality gap
+		 */
+		public double getGap() {
+			return upperBound - solution.getExpectedReward();
+		}
+
+		/**
+		 * Get unused budget of the plan
+		 * @return budget minus expected cost
+		 */
+		public double getSlack() {
+			return slack;
+		}
+
+		public boolean isOptimal() {
+			return optimal;
+		}
+
+		/**
+		 * Get number of column generation rounds run so far
+		 * @return rounds
+		 */
+		public int getRounds() {
+			return rounds;
+		}
+	}
+}
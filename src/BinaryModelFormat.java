@@ -0,0 +1,171 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Compact binary model file that is read through a memory mapping. A
+ * little-endian header of 40 bytes (magic, version, number of states, number
+ * of actions, initial state, number of transitions, discount factor, number
+ * of resources, padding) is followed by the successor rows in CSR form, the
+ * flat reward array and one flat cost array per resource, indexed by
+ * s*nActions+a. Double arrays start at multiples of 8. Version 1 files have a
+ * 32 byte header without the number of resources and a single cost array.
+ */
+public class BinaryModelFormat {
+	private static final int MAGIC = 0x50444d43; // "CMDP"
+	private static final int VERSION = 2;
+	private static final int HEADER_BYTES_V1 = 32;
+	private static final int HEADER_BYTES = 40;
+
+	/**
+	 * Write a model
+	 * @param cmdp model
+	 * @param fileName target file, replaced if it exists
+	 */
+	public static void write(CMDP cmdp, String fileName) {
+		int nStates = cmdp.getNumStates();
+		int nActions = cmdp.getNumActions();
+		int nnz = cmdp.getNumTransitions();
+		int nResources = cmdp.getNumResources();
+		Layout layout = new Layout(HEADER_BYTES, nStates, nActions, nnz, nResources);
+
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, layout.size);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(nStates);
+			buffer.putInt(nActions);
+			buffer.putInt(cmdp.getInitialState());
+			buffer.putInt(nnz);
+			buffer.putDouble(cmdp.getDiscountFactor());
+			buffer.putInt(nResources);
+
+			buffer.position(layout.startOffset);
+			buffer.asIntBuffer().put(cmdp.getSuccessorStarts(), 0, nStates*nActions+1);
+			buffer.position(layout.stateOffset);
+			buffer.asIntBuffer().put(cmdp.getSuccessorStates(), 0, nnz);
+			buffer.position(layout.probabilityOffset);
+			buffer.asDoubleBuffer().put(cmdp.getSuccessorProbabilities(), 0, nnz);
+			buffer.position(layout.rewardOffset);
+			buffer.asDoubleBuffer().put(cmdp.getRewards());
+			for(int k=0; k<nResources; k++) {
+				buffer.position(layout.costOffset(k));
+				buffer.asDoubleBuffer().put(cmdp.getCosts(k));
+			}
+
+			buffer.force();
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Read a model written by write
+	 * @param fileName model file
+	 * @return model
+	 */
+	public static CMDP read(String fileName) {
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			if(buffer.getInt() != MAGIC) {
+				throw new RuntimeException("Not a binary model file: " + fileName);
+			}
+			int version = buffer.getInt();
+			if(version != 1 && version != VERSION) {
+				throw new RuntimeException("Unsupported model file version " + version);
+			}
+
+			int nStates = buffer.getInt();
+			int nActions = buffer.getInt();
+			int initialState = buffer.getInt();
+			int nnz = buffer.getInt();
+			double discountFactor = buffer.getDouble();
+			int nResources = version == 1 ? 1 : buffer.getInt();
+
+			Layout layout = new Layout(version == 1 ? HEADER_BYTES_V1 : HEADER_BYTES, nStates, nActions, nnz, nResources);
+			if(channel.size() < layout.size) {
+				throw new RuntimeException("Truncated model file: " + fileName);
+			}
+
+			int[] successorStart = new int[nStates*nActions+1];
+			int[] successorState = new int[nnz];
+			double[] successorProbability = new double[nnz];
+			double[] rewards = new double[nStates*nActions];
+
+			buffer.position(layout.startOffset);
+			buffer.asIntBuffer().get(successorStart);
+			buffer.position(layout.stateOffset);
+			buffer.asIntBuffer().get(successorState);
+			buffer.position(layout.probabilityOffset);
+			buffer.asDoubleBuffer().get(successorProbability);
+			buffer.position(layout.rewardOffset);
+			buffer.asDoubleBuffer().get(rewards);
+
+			CMDP cmdp = new CMDP(nStates, nActions, initialState, discountFactor, costs(buffer, layout, 0, nStates*nActions));
+			cmdp.setNumResources(nResources);
+			for(int k=1; k<nResources; k++) {
+				cmdp.setCosts(k, costs(buffer, layout, k, nStates*nActions));
+			}
+			cmdp.setRewards(rewards);
+			cmdp.setTransitions(successorStart, successorState, successorProbability);
+			return cmdp;
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private static double[] costs(MappedByteBuffer buffer, Layout layout, int k, int length) {
+		double[] costs = new double[length];
+		buffer.position(layout.costOffset(k));
+		buffer.asDoubleBuffer().get(costs);
+		return costs;
+	}
+
+	/**
+	 * Byte offsets of the arrays in a file
+	 */
+	private static class Layout {
+		private final int startOffset;
+		private final int stateOffset;
+		private final int probabilityOffset;
+		private final int rewardOffset;
+		private final int costOffset;
+		private final long costBytes;
+		private final int size;
+
+		public Layout(int headerBytes, int nStates, int nActions, int nnz, int nResources) {
+			long rows = (long) nStates * nActions;
+			long offset = headerBytes;
+
+			startOffset = (int) offset;
+			offset += 4 * (rows + 1);
+			stateOffset = (int) offset;
+			offset += 4L * nnz;
+			offset = (offset + 7) & ~7L;
+			probabilityOffset = (int) offset;
+			offset += 8L * nnz;
+			rewardOffset = (int) offset;
+			offset += 8 * rows;
+			costOffset = (int) offset;
+			costBytes = 8 * rows;
+			offset += nResources * costBytes;
+
+			if(offset > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Model too large for a single mapping: " + offset + " bytes");
+			}
+			size = (int) offset;
+		}
+
+		public int costOffset(int k) {
+			return (int) (costOffset + k * costBytes);
+		}
+	}
+}
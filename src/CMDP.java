@@ -1,11 +1,75 @@
+import java.util.Arrays;
 
 
 public class CMDP extends MDP {	
-	private double[][] costFunction;
+	// cost table of resource k, resource 0 is the cost used by the single budget methods
+	private CopyOnWriteTable[] costFunctions;
 	
 	public CMDP(int nStates, int nActions, int initialState, double discountFactor, double[][] costFunction) {
 		super(nStates, nActions, initialState, discountFactor);
-		this.costFunction = costFunction;
+		this.costFunctions = new CopyOnWriteTable[]{new CopyOnWriteTable(costFunction)};
+	}
+	
+	/**
+	 * Create a model with flat costs, which must not be modified afterwards
+	 * @param costs cost of (s,a) at s*nActions+a
+	 */
+	public CMDP(int nStates, int nActions, int initialState, double discountFactor, double[] costs) {
+		super(nStates, nActions, initialState, discountFactor);
+		assert costs.length == nStates*nActions;
+		this.costFunctions = new CopyOnWriteTable[]{new CopyOnWriteTable(costs, nActions)};
+	}
+	
+	private CMDP(CMDP source) {
+		super(source);
+		this.costFunctions = new CopyOnWriteTable[source.costFunctions.length];
+		for(int k=0; k<costFunctions.length; k++) {
+			this.costFunctions[k] = source.costFunctions[k].share();
+		}
+	}
+	
+	/**
+	 * Create a model that shares transitions, rewards and costs with this one.
+	 * Rewards and costs are copied on write, so assignCost on either model
+	 * does not affect the other.
+	 * @return copy of this model
+	 */
+	public CMDP copy() {
+		return new CMDP(this);
+	}
+	
+	/**
+	 * Get number of resources, each with its own cost function
+	 * @return number of resources
+	 */
+	public int getNumResources() {
+		return costFunctions.length;
+	}
+	
+	/**
+	 * Change the number of resources. Existing resources keep their costs,
+	 * added resources have zero cost.
+	 * @param nResources number of resources, at least 1
+	 */
+	public void setNumResources(int nResources) {
+		if(nResources < 1) {
+			throw new IllegalArgumentException("Invalid number of resources: "+nResources);
+		}
+		int old = costFunctions.length;
+		costFunctions = Arrays.copyOf(costFunctions, nResources);
+		for(int k=old; k<nResources; k++) {
+			costFunctions[k] = new CopyOnWriteTable(new double[getNumStates()*getNumActions()], getNumActions());
+		}
+	}
+	
+	/**
+	 * Get cost of resource 0 when executing action a in state s
+	 * @param s state
+	 * @param a action
+	 * @return cost / resource consumption
+	 */
+	public double getCost(int s, int a) {
+		return getCost(0, s, a);
 	}
 	
 	/**
@@ -15,26 +79,84 @@ public class CMDP extends MDP {
 	 * @param a action
 	 * @return cost / resource consumption
 	 */
-	public double getCost(int s, int a) {
+	public double getCost(int k, int s, int a) {
 		assert s<super.getNumStates() && a<super.getNumActions();
-		return costFunction[s][a];
+		return costFunctions[k].get(s, a);
 	}
 	
 	/**
-	 * Get cost function
+	 * Get a copy of the cost function of resource 0. Each call allocates new
+	 * arrays and changing them does not change the model, read access in bulk
+	 * should use getCosts instead.
 	 * @return cost function
 	 */
 	public double[][] getCostFunction() {
-		return costFunction;
+		return costFunctions[0].toArray();
+	}
+	
+	/**
+	 * Get costs of resource 0 without copying. The array is not changed by
+	 * later assignments and must not be modified.
+	 * @return cost of (s,a) at s*nActions+a
+	 */
+	public double[] getCosts() {
+		return getCosts(0);
+	}
+	
+	/**
+	 * Get costs of a resource without copying. The array is not changed by
+	 * later assignments and must not be modified.
+	 * @param k resource id
+	 * @return cost of (s,a) at s*nActions+a
+	 */
+	public double[] getCosts(int k) {
+		return costFunctions[k].values();
 	}
 	
 	/**
-	 * Assign cost to a state-action pair
+	 * Set cost function of resource 0, the values are copied
+	 * @param costFunction cost function
+	 */
+	public void setCostFunction(double[][] costFunction) {
+		this.costFunctions[0] = new CopyOnWriteTable(costFunction);
+	}
+	
+	/**
+	 * Set costs of resource 0 from a flat array, which must not be modified afterwards
+	 * @param costs cost of (s,a) at s*nActions+a
+	 */
+	public void setCosts(double[] costs) {
+		setCosts(0, costs);
+	}
+	
+	/**
+	 * Set costs of a resource from a flat array, which must not be modified afterwards
+	 * @param k resource id
+	 * @param costs cost of (s,a) at s*nActions+a
+	 */
+	public void setCosts(int k, double[] costs) {
+		assert costs.length == getNumStates()*getNumActions();
+		this.costFunctions[k] = new CopyOnWriteTable(costs, getNumActions());
+	}
+	
+	/**
+	 * Assign cost of resource 0 to a state-action pair
 	 * @param s state
 	 * @param a action
 	 * @param cost cost corresponding to s,a
 	 */
 	public void assignCost(int s, int a, double cost) {
-		costFunction[s][a] = cost;
+		costFunctions[0].set(s, a, cost);
+	}
+	
+	/**
+	 * Assign cost of a resource to a state-action pair
+	 * @param k resource id
+	 * @param s state
+	 * @param a action
+	 * @param cost cost corresponding to s,a
+	 */
+	public void assignCost(int k, int s, int a, double cost) {
+		costFunctions[k].set(s, a, cost);
 	}
 }
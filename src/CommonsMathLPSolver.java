@@ -0,0 +1,44 @@
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.optim.linear.LinearConstraint;
+import org.apache.commons.math3.optim.linear.LinearConstraintSet;
+import org.apache.commons.math3.optim.linear.LinearObjectiveFunction;
+import org.apache.commons.math3.optim.linear.NonNegativeConstraint;
+import org.apache.commons.math3.optim.linear.SimplexSolver;
+import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
+
+
+/**
+ * Dense tableau backend based on the commons-math SimplexSolver. Only
+ * suitable for small instances, kept as a reference implementation.
+ */
+public class CommonsMathLPSolver implements LPSolver {
+
+	public LPResult solve(LinearProgram lp) {
+		int nRows = lp.getNumRows();
+		int nCols = lp.getNumColumns();
+
+		double[] objectiveCoefficients = new double[nCols];
+		double[][] rows = new double[nRows][nCols];
+		for(int j=0; j<nCols; j++) {
+			objectiveCoefficients[j] = lp.getObjective(j);
+
+			for(int k=lp.getColumnStart(j); k<lp.getColumnEnd(j); k++) {
+				rows[lp.getEntryRow(k)][j] = lp.getEntryValue(k);
+			}
+		}
+
+		Collection<LinearConstraint> constraints = new ArrayList<LinearConstraint>();
+		for(int r=0; r<nRows; r++) {
+			constraints.add(new LinearConstraint(rows[r], lp.getRelationship(r), lp.getRhs(r)));
+		}
+
+		SimplexSolver solver = new SimplexSolver();
+		LinearObjectiveFunction objectiveFunction = new LinearObjectiveFunction(objectiveCoefficients, 0);
+		PointValuePair solution = solver.optimize(objectiveFunction, new LinearConstraintSet(constraints), GoalType.MAXIMIZE, new NonNegativeConstraint(true));
+
+		return new LPResult(solution.getPoint(), solution.getValue(), null, null, solver.getIterations());
+	}
+}
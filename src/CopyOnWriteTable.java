@@ -0,0 +1,81 @@
+
+/**
+ * Table of values per state-action pair, stored flat at s*nActions+a, whose
+ * array can be shared between models. The array is copied on the first
+ * write after sharing, so models that derive from the same base share one
+ * array until they change it.
+ */
+public class CopyOnWriteTable {
+	private final int nActions;
+	private double[] values;
+	private boolean shared;
+
+	/**
+	 * Create a table from rows, the values are copied
+	 * @param rows rows[s][a] is the value of (s,a)
+	 */
+	public CopyOnWriteTable(double[][] rows) {
+		this.nActions = rows.length == 0 ? 0 : rows[0].length;
+		this.values = new double[rows.length * nActions];
+		for(int s=0; s<rows.length; s++) {
+			System.arraycopy(rows[s], 0, values, s*nActions, nActions);
+		}
+		this.shared = false;
+	}
+
+	/**
+	 * Create a table that uses a flat array, which must not be modified afterwards
+	 * @param values value of (s,a) at s*nActions+a
+	 * @param nActions number of actions
+	 */
+	public CopyOnWriteTable(double[] values, int nActions) {
+		this.nActions = nActions;
+		this.values = values;
+		this.shared = true;
+	}
+
+	public double get(int s, int a) {
+		return values[s*nActions+a];
+	}
+
+	public void set(int s, int a, double value) {
+		if(shared) {
+			values = values.clone();
+			shared = false;
+		}
+		values[s*nActions+a] = value;
+	}
+
+	/**
+	 * Create a table with the same values. Both tables copy the array before
+	 * writing to it, so changes of one are not visible in the other.
+	 * @return table sharing the array with this table
+	 */
+	public CopyOnWriteTable share() {
+		shared = true;
+		return new CopyOnWriteTable(values, nActions);
+	}
+
+	/**
+	 * Get the current values without copying. Later writes to the table do not
+	 * change the returned array, which must not be modified by the caller.
+	 * @return value of (s,a) at s*nActions+a
+	 */
+	public double[] values() {
+		shared = true;
+		return values;
+	}
+
+	/**
+	 * Get a copy of the values as rows
+	 * @return rows[s][a] is the value of (s,a)
+	 */
+	public double[][] toArray() {
+		double[][] rows = new double[nActions == 0 ? 0 : values.length / nActions][];
+		for(int s=0; s<rows.length; s++) {
+			rows[s] = new double[nActions];
+			System.arraycopy(values, s*nActions, rows[s], 0, nActions);
+		}
+		return rows;
+	}
+}
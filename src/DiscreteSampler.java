@@ -0,0 +1,210 @@
+import java.util.function.DoubleSupplier;
+
+
+/**
+ * Sampler of a fixed discrete distribution over the indices of a weight
+ * array. Samplers are built once and draw from one uniform number per sample.
+ * Small supports use a binary search over cumulative weights, large supports
+ * the alias method of Walker and Vose with O(1) draws.
+ */
+public abstract class DiscreteSampler {
+	private static final int CUMULATIVE_SUPPORT = 16;
+
+	/**
+	 * Build the sampler best suited to the number of non-zero weights
+	 * @param weights non-negative weights, need not be normalized
+	 * @return sampler returning indices of weights
+	 */
+	public static DiscreteSampler of(double[] weights) {
+		int support = validate(weights);
+		if(support == 1) {
+			for(int i=0; i<weights.length; i++) {
+				if(weights[i] > 0.0) {
+					return new Point(i);
+				}
+			}
+		}
+		return support <= CUMULATIVE_SUPPORT ? new Cumulative(weights, support) : new Alias(weights);
+	}
+
+	/**
+	 * Build a sampler that uses the alias method
+	 * @param weights non-negative weights, need not be normalized
+	 * @return sampler returning indices of weights
+	 */
+	public static DiscreteSampler alias(double[] weights) {
+		validate(weights);
+		return new Alias(weights);
+	}
+
+	/**
+	 * Build a sampler that searches the cumulative weights, returning the first
+	 * index whose cumulative weight reaches u times the total weight
+	 * @param weights non-negative weights, need not be normalized
+	 * @return sampler returning indices of weights
+	 */
+	public static DiscreteSampler cumulative(double[] weights) {
+		return new Cumulative(weights, validate(weights));
+	}
+
+	/**
+	 * Draw an index
+	 * @param u uniform number in [0,1)
+	 * @return sampled index
+	 */
+	public abstract int sample(double u);
+
+	public int sample(DoubleSupplier uniform) {
+		return sample(uniform.getAsDouble());
+	}
+
+	/**
+	 * Fill an array with independent draws
+	 * @param uniform source of uniform numbers in [0,1)
+	 * @param out receives the sampled indices
+	 */
+	public void sample(DoubleSupplier uniform, int[] out) {
+		for(int k=0; k<out.length; k++) {
+			out[k] = sample(uniform.getAsDouble());
+		}
+	}
+
+	/**
+	 * @return number of non-zero weights
+	 */
+	private static int validate(double[] weights) {
+		int support = 0;
+		for(double w : weights) {
+			if(!(w >= 0.0) || Double.isInfinite(w)) {
+				throw new IllegalArgumentException("Invalid weight "+w);
+			}
+			if(w > 0.0) {
+				support++;
+			}
+		}
+
+		if(support == 0) {
+			throw new IllegalArgumentException("No positive weight");
+		}
+		return support;
+	}
+
+	private static class Point extends DiscreteSampler {
+		private final int index;
+
+		public Point(int index) {
+			this.index = index;
+		}
+
+		public int sample(double u) {
+			return index;
+		}
+	}
+
+	private static class Cumulative extends DiscreteSampler {
+		private final int[] index;
+		private final double[] cumulative;
+
+		public Cumulative(double[] weights, int support) {
+			index = new int[support];
+			cumulative = new double[support];
+
+			int k = 0;
+			double sum = 0.0;
+			for(int i=0; i<weights.length; i++) {
+				if(weights[i] > 0.0) {
+					sum += weights[i];
+					index[k] = i;
+					cumulative[k] = sum;
+					k++;
+				}
+			}
+		}
+
+		public int sample(double u) {
+			int last = cumulative.length-1;
+			double target = cumulative[last] == 1.0 ? u : u * cumulative[last];
+
+			int lo = 0;
+			int hi = last;
+			while(lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if(cumulative[mid] >= target) {
+					hi = mid;
+				}
+				else {
+					lo = mid+1;
+				}
+			}
+			return index[lo];
+		}
+	}
+
+	private static class Alias extends DiscreteSampler {
+		private final double[] probability;
+		private final int[] alias;
+
+		/**
+		 * Vose's construction, each column holds its own index with the given
+		 * probability and its alias otherwise
+		 */
+		public Alias(double[] weights) {
+			int n = weights.length;
+			probability = new double[n];
+			alias = new int[n];
+
+			double total = 0.0;
+			for(double w : weights) {
+				total += w;
+			}
+
+			double[] scaled = new double[n];
+			int[] small = new int[n];
+			int[] large = new int[n];
+			int nSmall = 0;
+			int nLarge = 0;
+			for(int i=0; i<n; i++) {
+				scaled[i] = weights[i] * n / total;
+				if(scaled[i] < 1.0) {
+					small[nSmall++] = i;
+				}
+				else {
+					large[nLarge++] = i;
+				}
+			}
+
+			while(nSmall > 0 && nLarge > 0) {
+				int l = small[--nSmall];
+				int g = large[--nLarge];
+				probability[l] = scaled[l];
+				alias[l] = g;
+
+				scaled[g] = (scaled[g] + scaled[l]) - 1.0;
+				if(scaled[g] < 1.0) {
+					small[nSmall++] = g;
+				}
+				else {
+					large[nLarge++] = g;
+				}
+			}
+
+			// leftovers are full columns up to rounding
+			while(nLarge > 0) {
+				int g = large[--nLarge];
+				probability[g] = 1.0;
+				alias[g] = g;
+			}
+			while(nSmall > 0) {
+				int l = small[--nSmall];
+				probability[l] = 1.0;
+				alias[l] = l;
+			}
+		}
+
+		public int sample(double u) {
+			double x = u * probability.length;
+			int column = Math.min((int) x, probability.length-1);
+			return x - column < probability[column] ? column : alias[column];
+		}
+	}
+}
@@ -0,0 +1,643 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.apache.commons.math3.optim.linear.Relationship;
+
+
+/**
+ * Planner for campaigns that run for a fixed number of steps H. Rewards and
+ * costs of step t are discounted by gamma^t, gamma = 1 gives the plain sum.
+ * Unconstrained problems are solved per type by backward induction. The
+ * constrained problem is the time-indexed occupancy-measure LP, solved by
+ * Dantzig-Wolfe decomposition as in LagrangianSolver: with prices on the
+ * limits every type is an unconstrained problem solved by backward induction
+ * in O(H * transitions), and a small master LP mixes the policies found. The
+ * LP can also be solved directly with solveLP, whose layers only contain the
+ * states reachable at that step.
+ */
+public class FiniteHorizonPlanner {
+	private static final double ZERO_TOL = 0.00000001;
+	private static final double TOLERANCE = 1e-7;
+
+	private LPSolver lpSolver;
+	private int maxIterations = 1000;
+
+	public FiniteHorizonPlanner() {
+		this(new SparseSimplexSolver());
+	}
+
+	public FiniteHorizonPlanner(LPSolver lpSolver) {
+		this.lpSolver = lpSolver;
+	}
+
+	public void setLPSolver(LPSolver lpSolver) {
+		this.lpSolver = lpSolver;
+	}
+
+	/**
+	 * Set maximum number of column generation rounds of solve
+	 * @param maxIterations maximum number of rounds, at least one
+	 */
+	public void setMaxIterations(int maxIterations) {
+		if(maxIterations < 1) {
+			throw new IllegalArgumentException("Invalid number of rounds: "+maxIterations);
+		}
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * Solve each agent without constraints using backward induction
+	 * @param cmdps agents
+	 * @param horizon number of steps
+	 * @return solution with deterministic time-dependent policies
+	 */
+	public FiniteHorizonSolution solveUnconstrained(CMDP[] cmdps, int horizon) {
+		Population population = Population.of(cmdps);
+		int nTypes = population.getNumTypes();
+		Policy[][] policies = new Policy[nTypes][horizon];
+		double[][] expectations = new double[nTypes][];
+
+		IntStream.range(0, nTypes).parallel().forEach(t -> {
+			CMDP cmdp = population.getType(t);
+			int[][] actions = backwardInduction(cmdp, horizon, cmdp.getRewards(), null);
+			for(int step=0; step<horizon; step++) {
+				policies[t][step] = Policy.deterministic(actions[step], cmdp.getNumActions());
+			}
+			expectations[t] = forwardExpectations(cmdp, actions);
+		});
+
+		return buildSolution(population, policies, expectations);
+	}
+
+	/**
+	 * Solve the constrained problem with a budget of resource 0
+	 * @param cmdps agents
+	 * @param horizon number of steps
+	 * @param costLimit budget shared by all agents
+	 * @return solution with time-dependent policies
+	 */
+	public FiniteHorizonSolution solve(CMDP[] cmdps, int horizon, double costLimit) {
+		return solve(cmdps, horizon, new ResourceLimits(costLimit));
+	}
+
+	/**
+	 * Solve the constrained problem by decomposition into backward induction
+	 * problems per type, the cost of a round is linear in the horizon
+	 * @param cmdps agents
+	 * @param horizon number of steps
+	 * @param limits global, per-agent and per-group limits, agent ids index cmdps
+	 * @return solution with time-dependent policies
+	 */
+	public FiniteHorizonSolution solve(CMDP[] cmdps, int horizon, ResourceLimits limits) {
+		Population population = Population.of(cmdps, limits.agentClasses(cmdps.length));
+		int nTypes = population.getNumTypes();
+		List<List<Column>> columns = new ArrayList<List<Column>>();
+		for(int t=0; t<nTypes; t++) {
+			columns.add(new ArrayList<Column>());
+		}
+
+		// start with the reward-maximizing policy and the policies minimizing all and each single resource
+		int nResources = limits.getNumResources();
+		double[] values = new double[nTypes];
+		double[] prices = new double[nResources];
+		priceAll(population, horizon, 1.0, prices, columns, values);
+		Arrays.fill(prices, 1.0);
+		priceAll(population, horizon, 0.0, prices, columns, values);
+		if(nResources > 1) {
+			for(int k=0; k<nResources; k++) {
+				Arrays.fill(prices, 0.0);
+				prices[k] = 1.0;
+				priceAll(population, horizon, 0.0, prices, columns, values);
+			}
+		}
+
+		LPResult result = null;
+		int[] masterColumns = new int[nTypes];
+		for(int iteration=0; iteration<maxIterations; iteration++) {
+			LinearProgram master = new LinearProgram();
+			for(int t=0; t<nTypes; t++) {
+				master.addRow(Relationship.EQ, population.getMultiplicity(t));
+			}
+			List<List<int[]>> typeRows = OccupancyLPBuilder.addLimitRows(master, population, limits);
+			addMasterColumns(master, population, columns, nResources, typeRows);
+			for(int t=0; t<nTypes; t++) {
+				masterColumns[t] = columns.get(t).size();
+			}
+			result = lpSolver.solve(master);
+			double[] duals = result.getDuals();
+
+			// Lagrangian bound sum_t m_t max_pi (R - y'C) + y'b over the limit rows
+			double upperBound = 0.0;
+			for(int row=nTypes; row<master.getNumRows(); row++) {
+				upperBound += duals[row] * master.getRhs(row);
+			}
+
+			int added = 0;
+			for(int t=0; t<nTypes; t++) {
+				double[] typePrices = new double[nResources];
+				for(int k=0; k<nResources; k++) {
+					typePrices[k] = duals[nTypes + k];
+				}
+				for(int[] row : typeRows.get(t)) {
+					typePrices[row[1]] += duals[row[0]];
+				}
+				added += priceType(population, t, horizon, 1.0, typePrices, columns, values);
+				upperBound += population.getMultiplicity(t) * values[t];
+			}
+
+			if(added == 0 || upperBound - result.getValue() <= TOLERANCE * (1.0 + Math.abs(result.getValue()))) {
+				break;
+			}
+		}
+
+		return mixColumns(population, horizon, columns, masterColumns, result.getPoint());
+	}
+
+	/**
+	 * Solve the constrained problem with the time-indexed occupancy-measure LP
+	 * directly. The LP has a row per type, step and reachable state, simplex
+	 * iterations make its cost grow faster than linear in the horizon.
+	 * @param cmdps agents
+	 * @param horizon number of steps
+	 * @param limits global, per-agent and per-group limits, agent ids index cmdps
+	 * @return solution with time-dependent policies
+	 */
+	public FiniteHorizonSolution solveLP(CMDP[] cmdps, int horizon, ResourceLimits limits) {
+		Population population = Population.of(cmdps, limits.agentClasses(cmdps.length));
+		int nTypes = population.getNumTypes();
+		LinearProgram lp = new LinearProgram();
+
+		// flow rows of the reachable states of each layer, row[type][step][s] is -1 for unreachable states
+		int[][][] row = new int[nTypes][][];
+		for(int t=0; t<nTypes; t++) {
+			CMDP cmdp = population.getType(t);
+			boolean[][] reachable = reachableStates(cmdp, horizon);
+			row[t] = new int[horizon][cmdp.getNumStates()];
+
+			for(int step=0; step<horizon; step++) {
+				for(int s=0; s<cmdp.getNumStates(); s++) {
+					row[t][step][s] = -1;
+					if(reachable[step][s]) {
+						double rhs = step == 0 ? population.getMultiplicity(t) : 0.0;
+						row[t][step][s] = lp.addRow(Relationship.EQ, rhs);
+					}
+				}
+			}
+		}
+
+		int resourceRow = lp.getNumRows();
+		List<List<int[]>> typeRows = OccupancyLPBuilder.addLimitRows(lp, population, limits);
+
+		int[][][] column = new int[nTypes][][];
+		for(int t=0; t<nTypes; t++) {
+			column[t] = addLayerColumns(lp, population.getType(t), row[t], resourceRow, limits.getNumResources(), typeRows.get(t));
+		}
+
+		// crash basis from the unconstrained policies with all limit slacks basic
+		int[][][] induction = new int[nTypes][][];
+		int[] basis = new int[lp.getNumRows()];
+		IntStream.range(0, nTypes).parallel().forEach(t -> {
+			CMDP cmdp = population.getType(t);
+			induction[t] = backwardInduction(cmdp, horizon, cmdp.getRewards(), null);
+			for(int step=0; step<horizon; step++) {
+				for(int s=0; s<cmdp.getNumStates(); s++) {
+					if(row[t][step][s] >= 0) {
+						basis[row[t][step][s]] = column[t][step][s] + induction[t][step][s];
+					}
+				}
+			}
+		});
+		for(int r=resourceRow; r<lp.getNumRows(); r++) {
+			basis[r] = -(r+1);
+		}
+
+		double[] point = lpSolver.solve(lp, basis).getPoint();
+
+		// policies from the occupancy of each layer, states without occupancy follow backward induction
+		Policy[][] policies = new Policy[nTypes][horizon];
+		double[][] expectations = new double[nTypes][];
+		for(int t=0; t<nTypes; t++) {
+			CMDP cmdp = population.getType(t);
+			int nActions = cmdp.getNumActions();
+			int nResources = cmdp.getNumResources();
+			double[] rewards = cmdp.getRewards();
+			expectations[t] = new double[1 + nResources];
+
+			double discount = 1.0;
+			for(int step=0; step<horizon; step++) {
+				double[] weights = new double[cmdp.getNumStates() * nActions];
+				for(int s=0; s<cmdp.getNumStates(); s++) {
+					if(column[t][step][s] < 0) {
+						continue;
+					}
+					for(int a=0; a<nActions; a++) {
+						double x = point[column[t][step][s] + a];
+						if(Math.abs(x) < ZERO_TOL) {
+							continue;
+						}
+						int sa = s*nActions+a;
+						weights[sa] = x;
+						expectations[t][0] += discount * x * rewards[sa];
+						for(int k=0; k<nResources; k++) {
+							expectations[t][1+k] += discount * x * cmdp.getCosts(k)[sa];
+						}
+					}
+				}
+				policies[t][step] = Policy.fromWeights(weights, 0, cmdp.getNumStates(), nActions, induction[t][step]);
+				discount *= cmdp.getDiscountFactor();
+			}
+
+			for(int j=0; j<expectations[t].length; j++) {
+				expectations[t][j] /= population.getMultiplicity(t);
+			}
+		}
+
+		return buildSolution(population, policies, expectations);
+	}
+
+	/**
+	 * Add the columns of one type, layer by layer
+	 * @return first column of (step,s) or -1 if s is not reachable at step
+	 */
+	private static int[][] addLayerColumns(LinearProgram lp, CMDP cmdp, int[][] row, int resourceRow, int nResources, List<int[]> limitRows) {
+		int horizon = row.length;
+		int nActions = cmdp.getNumActions();
+		int kMax = Math.min(nResources, cmdp.getNumResources());
+		double[][] costs = new double[kMax][];
+		for(int k=0; k<kMax; k++) {
+			costs[k] = cmdp.getCosts(k);
+		}
+		double[] rewards = cmdp.getRewards();
+		int[] start = cmdp.getSuccessorStarts();
+		int[] successor = cmdp.getSuccessorStates();
+		double[] probability = cmdp.getSuccessorProbabilities();
+
+		int maxSuccessors = 0;
+		for(int sa=0; sa<cmdp.getNumStates()*nActions; sa++) {
+			maxSuccessors = Math.max(maxSuccessors, start[sa+1] - start[sa]);
+		}
+		int[] rows = new int[1 + maxSuccessors + kMax + limitRows.size()];
+		double[] values = new double[rows.length];
+
+		int[][] column = new int[horizon][cmdp.getNumStates()];
+		double discount = 1.0;
+		for(int step=0; step<horizon; step++) {
+			for(int s=0; s<cmdp.getNumStates(); s++) {
+				column[step][s] = -1;
+				if(row[step][s] < 0) {
+					continue;
+				}
+				column[step][s] = lp.getNumColumns();
+
+				for(int a=0; a<nActions; a++) {
+					int sa = s*nActions+a;
+
+					// leaves (step,s) and arrives at the successors in the next layer
+					int count = 0;
+					rows[count] = row[step][s];
+					values[count] = 1.0;
+					count++;
+					if(step+1 < horizon) {
+						for(int j=start[sa]; j<start[sa+1]; j++) {
+							rows[count] = row[step+1][successor[j]];
+							values[count] = -probability[j];
+							count++;
+						}
+					}
+
+					for(int k=0; k<kMax; k++) {
+						if(costs[k][sa] != 0.0) {
+							rows[count] = resourceRow + k;
+							values[count] = discount * costs[k][sa];
+							count++;
+						}
+					}
+					for(int[] limitRow : limitRows) {
+						double cost = limitRow[1] < kMax ? costs[limitRow[1]][sa] : 0.0;
+						if(cost != 0.0) {
+							rows[count] = limitRow[0];
+							values[count] = discount * cost;
+							count++;
+						}
+					}
+
+					lp.addColumn(discount * rewards[sa], rows, values, count);
+				}
+			}
+			discount *= cmdp.getDiscountFactor();
+		}
+
+		return column;
+	}
+
+	/**
+	 * States that can be reached at each step from the initial state
+	 */
+	private static boolean[][] reachableStates(CMDP cmdp, int horizon) {
+		int nActions = cmdp.getNumActions();
+		int[] start = cmdp.getSuccessorStarts();
+		int[] successor = cmdp.getSuccessorStates();
+
+		boolean[][] reachable = new boolean[horizon][cmdp.getNumStates()];
+		if(horizon > 0) {
+			reachable[0][cmdp.getInitialState()] = true;
+		}
+		for(int step=0; step+1<horizon; step++) {
+			for(int s=0; s<cmdp.getNumStates(); s++) {
+				if(reachable[step][s]) {
+					for(int j=start[s*nActions]; j<start[(s+1)*nActions]; j++) {
+						reachable[step+1][successor[j]] = true;
+					}
+				}
+			}
+		}
+		return reachable;
+	}
+
+	/**
+	 * Optimal action of every step and state, ties go to the lowest action
+	 * @param rewards reward of (s,a) at s*nActions+a
+	 * @param value0 receives the optimal value of the initial state at value[0], may be null
+	 */
+	private static int[][] backwardInduction(CMDP cmdp, int horizon, double[] rewards, double[] value0) {
+		int nStates = cmdp.getNumStates();
+		int nActions = cmdp.getNumActions();
+		double gamma = cmdp.getDiscountFactor();
+		int[] start = cmdp.getSuccessorStarts();
+		int[] successor = cmdp.getSuccessorStates();
+		double[] probability = cmdp.getSuccessorProbabilities();
+
+		int[][] actions = new int[horizon][nStates];
+		double[] next = new double[nStates];
+		double[] value = new double[nStates];
+		for(int step=horizon-1; step>=0; step--) {
+			for(int s=0; s<nStates; s++) {
+				double best = Double.NEGATIVE_INFINITY;
+				for(int a=0; a<nActions; a++) {
+					int sa = s*nActions+a;
+					double q = 0.0;
+					for(int j=start[sa]; j<start[sa+1]; j++) {
+						q += probability[j] * next[successor[j]];
+					}
+					q = rewards[sa] + gamma * q;
+					if(q > best) {
+						best = q;
+						actions[step][s] = a;
+					}
+				}
+				value[s] = best;
+			}
+
+			double[] swap = next;
+			next = value;
+			value = swap;
+		}
+		if(value0 != null) {
+			value0[0] = next[cmdp.getInitialState()];
+		}
+		return actions;
+	}
+
+	/**
+	 * Expected discounted reward and consumption of each resource of a
+	 * deterministic policy, from the state distribution of each step
+	 * @return reward at 0, consumption of resource k at 1+k
+	 */
+	private static double[] forwardExpectations(CMDP cmdp, int[][] actions) {
+		int nStates = cmdp.getNumStates();
+		int nActions = cmdp.getNumActions();
+		int nResources = cmdp.getNumResources();
+		double[] rewards = cmdp.getRewards();
+		int[] start = cmdp.getSuccessorStarts();
+		int[] successor = cmdp.getSuccessorStates();
+		double[] probability = cmdp.getSuccessorProbabilities();
+
+		double[] expectations = new double[1 + nResources];
+		double[] distribution = new double[nStates];
+		double[] next = new double[nStates];
+		distribution[cmdp.getInitialState()] = 1.0;
+
+		double discount = 1.0;
+		for(int step=0; step<actions.length; step++) {
+			Arrays.fill(next, 0.0);
+			for(int s=0; s<nStates; s++) {
+				double d = distribution[s];
+				if(d == 0.0) {
+					continue;
+				}
+				int sa = s*nActions + actions[step][s];
+				expectations[0] += discount * d * rewards[sa];
+				for(int k=0; k<nResources; k++) {
+					expectations[1+k] += discount * d * cmdp.getCosts(k)[sa];
+				}
+				for(int j=start[sa]; j<start[sa+1]; j++) {
+					next[successor[j]] += d * probability[j];
+				}
+			}
+
+			double[] swap = distribution;
+			distribution = next;
+			next = swap;
+			discount *= cmdp.getDiscountFactor();
+		}
+		return expectations;
+	}
+
+	private static void priceAll(Population population, int horizon, double rewardWeight, double[] prices, List<List<Column>> columns, double[] values) {
+		for(int t=0; t<population.getNumTypes(); t++) {
+			priceType(population, t, horizon, rewardWeight, prices, columns, values);
+		}
+	}
+
+	/**
+	 * Solve the subproblem of a type with reward rewardWeight*R - prices'C and
+	 * add its best response to the columns
+	 * @param values receives the optimal value of the subproblem at values[t]
+	 * @return 1 if the column is new, 0 otherwise
+	 */
+	private static int priceType(Population population, int t, int horizon, double rewardWeight, double[] prices, List<List<Column>> columns, double[] values) {
+		CMDP cmdp = population.getType(t);
+		double[] rewards = cmdp.getRewards();
+		double[] lagrangianRewards = new double[rewards.length];
+		for(int sa=0; sa<rewards.length; sa++) {
+			lagrangianRewards[sa] = rewardWeight * rewards[sa];
+		}
+		for(int k=0; k<Math.min(prices.length, cmdp.getNumResources()); k++) {
+			double[] costs = cmdp.getCosts(k);
+			for(int sa=0; sa<rewards.length; sa++) {
+				lagrangianRewards[sa] -= prices[k] * costs[sa];
+			}
+		}
+
+		double[] value0 = new double[1];
+		int[][] actions = backwardInduction(cmdp, horizon, lagrangianRewards, value0);
+		values[t] = value0[0];
+
+		for(Column column : columns.get(t)) {
+			if(Arrays.deepEquals(column.actions, actions)) {
+				return 0;
+			}
+		}
+		columns.get(t).add(new Column(actions, forwardExpectations(cmdp, actions)));
+		return 1;
+	}
+
+	/**
+	 * Master columns, the weight of a column is the number of agents of its type following it
+	 */
+	private static void addMasterColumns(LinearProgram master, Population population, List<List<Column>> columns, int nResources, List<List<int[]>> typeRows) {
+		int nTypes = population.getNumTypes();
+		for(int t=0; t<nTypes; t++) {
+			int[] rows = new int[1 + nResources + typeRows.get(t).size()];
+			double[] values = new double[rows.length];
+
+			for(Column column : columns.get(t)) {
+				int kMax = Math.min(nResources, column.expectations.length - 1);
+				int count = 0;
+				rows[count] = t;
+				values[count] = 1.0;
+				count++;
+				for(int k=0; k<kMax; k++) {
+					if(column.expectations[1+k] != 0.0) {
+						rows[count] = nTypes + k;
+						values[count] = column.expectations[1+k];
+						count++;
+					}
+				}
+				for(int[] row : typeRows.get(t)) {
+					double cost = row[1] < kMax ? column.expectations[1+row[1]] : 0.0;
+					if(cost != 0.0) {
+						rows[count] = row[0];
+						values[count] = cost;
+						count++;
+					}
+				}
+				master.addColumn(column.expectations[0], rows, values, count);
+			}
+		}
+	}
+
+	/**
+	 * Mix the state-action distributions of the columns of each type with the
+	 * master weights, which gives a randomized time-dependent policy
+	 * @param masterColumns number of columns of each type in the master, later columns have no weight
+	 */
+	private static FiniteHorizonSolution mixColumns(Population population, int horizon, List<List<Column>> columns, int[] masterColumns, double[] weights) {
+		int nTypes = population.getNumTypes();
+		Policy[][] policies = new Policy[nTypes][horizon];
+		double[][] expectations = new double[nTypes][];
+
+		int col = 0;
+		for(int t=0; t<nTypes; t++) {
+			CMDP cmdp = population.getType(t);
+			int nStates = cmdp.getNumStates();
+			int nActions = cmdp.getNumActions();
+			int m = population.getMultiplicity(t);
+
+			Column heaviest = null;
+			double heaviestWeight = -1.0;
+			double[][] flow = new double[horizon][nStates * nActions];
+			expectations[t] = new double[1 + cmdp.getNumResources()];
+
+			for(Column column : columns.get(t).subList(0, masterColumns[t])) {
+				double w = weights[col++] / m;
+				if(w > heaviestWeight) {
+					heaviestWeight = w;
+					heaviest = column;
+				}
+				if(w < ZERO_TOL) {
+					continue;
+				}
+
+				for(int j=0; j<expectations[t].length; j++) {
+					expectations[t][j] += w * column.expectations[j];
+				}
+				addStateActionDistribution(cmdp, column.actions, w, flow);
+			}
+
+			for(int step=0; step<horizon; step++) {
+				policies[t][step] = Policy.fromWeights(flow[step], 0, nStates, nActions, heaviest.actions[step]);
+			}
+		}
+
+		return buildSolution(population, policies, expectations);
+	}
+
+	/**
+	 * Add w times the probability of (s,a) at each step under a deterministic policy to flow[step][s*nActions+a]
+	 */
+	private static void addStateActionDistribution(CMDP cmdp, int[][] actions, double w, double[][] flow) {
+		int nStates = cmdp.getNumStates();
+		int nActions = cmdp.getNumActions();
+		int[] start = cmdp.getSuccessorStarts();
+		int[] successor = cmdp.getSuccessorStates();
+		double[] probability = cmdp.getSuccessorProbabilities();
+
+		double[] distribution = new double[nStates];
+		double[] next = new double[nStates];
+		distribution[cmdp.getInitialState()] = 1.0;
+		for(int step=0; step<actions.length; step++) {
+			Arrays.fill(next, 0.0);
+			for(int s=0; s<nStates; s++) {
+				double d = distribution[s];
+				if(d == 0.0) {
+					continue;
+				}
+				int sa = s*nActions + actions[step][s];
+				flow[step][sa] += w * d;
+				for(int j=start[sa]; j<start[sa+1]; j++) {
+					next[successor[j]] += d * probability[j];
+				}
+			}
+
+			double[] swap = distribution;
+			distribution = next;
+			next = swap;
+		}
+	}
+
+	/**
+	 * Share the policies and expectations of each type with its agents
+	 * @param expectations reward and consumption of each type for one agent, as from forwardExpectations
+	 */
+	private static FiniteHorizonSolution buildSolution(Population population, Policy[][] policies, double[][] expectations) {
+		int nAgents = population.getNumAgents();
+		int nResources = 1;
+		for(int t=0; t<population.getNumTypes(); t++) {
+			nResources = Math.max(nResources, population.getType(t).getNumResources());
+		}
+
+		Policy[][] agentPolicies = new Policy[nAgents][];
+		double[] expectedRewardAgent = new double[nAgents];
+		double[][] consumptionAgent = new double[nResources][nAgents];
+		double expectedReward = 0.0;
+		double expectedCost = 0.0;
+		for(int i=0; i<nAgents; i++) {
+			int t = population.getAgentType(i);
+			agentPolicies[i] = policies[t];
+			expectedRewardAgent[i] = expectations[t][0];
+			for(int k=0; k+1<expectations[t].length; k++) {
+				consumptionAgent[k][i] = expectations[t][1+k];
+			}
+			expectedReward += expectedRewardAgent[i];
+			expectedCost += consumptionAgent[0][i];
+		}
+
+		return new FiniteHorizonSolution(agentPolicies, expectedReward, expectedCost, expectedRewardAgent, consumptionAgent);
+	}
+
+	/**
+	 * Deterministic time-dependent policy of a type with its expected reward and consumption
+	 */
+	private static class Column {
+		public final int[][] actions;
+		public final double[] expectations;
+
+		public Column(int[][] actions, double[] expectations) {
+			this.actions = actions;
+			this.expectations = expectations;
+		}
+	}
+}
@@ -0,0 +1,96 @@
+import java.util.Random;
+
+
+/**
+ * Solution of a finite-horizon problem with a policy per agent and time step.
+ * Agents of the same type share their policies.
+ */
+public class FiniteHorizonSolution {
+	// policies[i][t] is the policy of agent i at time t
+	private final Policy[][] policies;
+	private final double expectedReward;
+	private final double expectedCost;
+	private final double[] expectedRewardAgent;
+
+	// expected consumption of resource k by agent i, row 0 is the cost
+	private final double[][] expectedConsumptionAgent;
+
+	public FiniteHorizonSolution(Policy[][] policies, double expectedReward, double expectedCost, double[] expectedRewardAgent, double[][] expectedConsumptionAgent) {
+		this.policies = policies;
+		this.expectedReward = expectedReward;
+		this.expectedCost = expectedCost;
+		this.expectedRewardAgent = expectedRewardAgent;
+		this.expectedConsumptionAgent = expectedConsumptionAgent;
+	}
+
+	public int getHorizon() {
+		return policies.length == 0 ? 0 : policies[0].length;
+	}
+
+	/**
+	 * Get the policy of an agent at a time step
+	 * @param i agent id
+	 * @param t time step, 0 to getHorizon()-1
+	 * @return policy
+	 */
+	public Policy getPolicy(int i, int t) {
+		return policies[i][t];
+	}
+
+	/**
+	 * Draw the action of an agent
+	 * @param i agent id
+	 * @param t time step, 0 to getHorizon()-1
+	 * @param s current state of the agent
+	 * @param rnd random number generator, only used in randomized states
+	 * @return action
+	 */
+	public int sampleAction(int i, int t, int s, Random rnd) {
+		Policy policy = policies[i][t];
+		int a = policy.getAction(s);
+		return a >= 0 ? a : policy.sampleAction(s, rnd.nextDouble());
+	}
+
+	public double getExpectedReward() {
+		return expectedReward;
+	}
+
+	public double getExpectedCost() {
+		return expectedCost;
+	}
+
+	public double getExpectedReward(int i) {
+		return expectedRewardAgent[i];
+	}
+
+	public double getExpectedCost(int i) {
+		return expectedConsumptionAgent[0][i];
+	}
+
+	public int getNumResources() {
+		return expectedConsumptionAgent.length;
+	}
+
+	/**
+	 * Get expected consumption of a resource by all agents
+	 * @param k resource id
+	 * @return expected consumption
+	 */
+	public double getExpectedConsumption(int k) {
+		double consumption = 0.0;
+		for(double c : expectedConsumptionAgent[k]) {
+			consumption += c;
+		}
+		return consumption;
+	}
+
+	/**
+	 * Get expected consumption of a resource by an agent
+	 * @param k resource id
+	 * @param i agent id
+	 * @return expected consumption
+	 */
+	public double getExpectedConsumption(int k, int i) {
+		return expectedConsumptionAgent[k][i];
+	}
+}
@@ -0,0 +1,167 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Metrics kept in memory as one histogram per name and one value per counter.
+ * Histograms store samples in logarithmic buckets with 8 buckets per power of
+ * two, so percentiles are exact to within 12.5% and memory does not grow with
+ * the number of samples. Timings are stored in seconds.
+ */
+public class HistogramMetrics implements Metrics {
+	private final Map<String,Histogram> histograms = new ConcurrentHashMap<String,Histogram>();
+	private final Map<String,AtomicLong> counters = new ConcurrentHashMap<String,AtomicLong>();
+
+	@Override
+	public void recordTime(String name, long nanos) {
+		record(name, nanos * 1e-9);
+	}
+
+	@Override
+	public void record(String name, double value) {
+		histograms.computeIfAbsent(name, k -> new Histogram()).add(value);
+	}
+
+	@Override
+	public void increment(String name, long delta) {
+		counters.computeIfAbsent(name, k -> new AtomicLong()).addAndGet(delta);
+	}
+
+	/**
+	 * Get the histogram of a name
+	 * @param name measured quantity
+	 * @return histogram, null if nothing was recorded
+	 */
+	public Histogram getHistogram(String name) {
+		return histograms.get(name);
+	}
+
+	/**
+	 * Get the value of a counter
+	 * @param name counter
+	 * @return value, 0 if the counter was never incremented
+	 */
+	public long getCounter(String name) {
+		AtomicLong counter = counters.get(name);
+		return counter == null ? 0L : counter.get();
+	}
+
+	/**
+	 * Discard all histograms and counters
+	 */
+	public void clear() {
+		histograms.clear();
+		counters.clear();
+	}
+
+	/**
+	 * One line per histogram and counter, sorted by name
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for(Map.Entry<String,Histogram> entry : new TreeMap<String,Histogram>(histograms).entrySet()) {
+			sb.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+		}
+		for(Map.Entry<String,AtomicLong> entry : new TreeMap<String,AtomicLong>(counters).entrySet()) {
+			sb.append(entry.getKey()).append(" total=").append(entry.getValue().get()).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Histogram of samples, zero and negative samples share the lowest bucket
+	 */
+	public static class Histogram {
+		private static final int SUB_BUCKETS = 8;
+		private static final int MIN_EXPONENT = -64;
+		private static final int MAX_EXPONENT = 63;
+
+		private final long[] buckets = new long[(MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_BUCKETS + 1];
+		private long count = 0;
+		private double sum = 0.0;
+		private double min = Double.POSITIVE_INFINITY;
+		private double max = Double.NEGATIVE_INFINITY;
+
+		public synchronized void add(double value) {
+			buckets[bucket(value)]++;
+			count++;
+			sum += value;
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+		}
+
+		public synchronized long getCount() {
+			return count;
+		}
+
+		public synchronized double getSum() {
+			return sum;
+		}
+
+		public synchronized double getMean() {
+			return count == 0 ? Double.NaN : sum / count;
+		}
+
+		public synchronized double getMin() {
+			return min;
+		}
+
+		public synchronized double getMax() {
+			return max;
+		}
+
+		/**
+		 * Get a percentile
+		 * @param q fraction of samples at or below the result, in [0,1]
+		 * @return upper bound of the bucket holding the percentile, NaN without samples
+		 */
+		public synchronized double getPercentile(double q) {
+			if(count == 0) {
+				return Double.NaN;
+			}
+
+			long rank = Math.max(1L, (long) Math.ceil(q * count));
+			long seen = 0;
+			for(int b=0; b<buckets.length; b++) {
+				seen += buckets[b];
+				if(seen >= rank) {
+					return Math.max(min, Math.min(max, upperBound(b)));
+				}
+			}
+			return max;
+		}
+
+		/**
+		 * Bucket 0 holds samples up to 2^MIN_EXPONENT, bucket 1+(e-MIN_EXPONENT)*SUB_BUCKETS+j
+		 * the j-th eighth of [2^e, 2^(e+1))
+		 */
+		private static int bucket(double value) {
+			if(!(value > Math.scalb(1.0, MIN_EXPONENT))) {
+				return 0;
+			}
+			int exponent = Math.getExponent(value);
+			if(exponent > MAX_EXPONENT) {
+				return 1 + (MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_BUCKETS - 1;
+			}
+			int sub = (int) ((Math.scalb(value, -exponent) - 1.0) * SUB_BUCKETS);
+			return 1 + (exponent - MIN_EXPONENT) * SUB_BUCKETS + sub;
+		}
+
+		private static double upperBound(int bucket) {
+			if(bucket == 0) {
+				return Math.scalb(1.0, MIN_EXPONENT);
+			}
+			int exponent = (bucket - 1) / SUB_BUCKETS + MIN_EXPONENT;
+			int sub = (bucket - 1) % SUB_BUCKETS;
+			return Math.scalb(1.0 + (sub + 1.0) / SUB_BUCKETS, exponent);
+		}
+
+		@Override
+		public synchronized String toString() {
+			return String.format("count=%d mean=%.6g min=%.6g p50=%.6g p90=%.6g p99=%.6g max=%.6g", count, getMean(), min, getPercentile(0.5), getPercentile(0.9), getPercentile(0.99), max);
+		}
+	}
+}
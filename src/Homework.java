@@ -6,6 +6,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
 
 
 public class Homework {
@@ -119,9 +121,14 @@ public class Homework {
         PlanningAlgorithm alg = new PlanningAlgorithm();
 
 
-        for (int s = 0; s < 50; s++) {
-            Solution solution = alg.solve(cmdps, s);
-            double expectedReward = solution.getExpectedReward();
+        double[] budgets = new double[50];
+        for (int s = 0; s < budgets.length; s++) {
+            budgets[s] = s;
+        }
+
+        Solution[] solutions = alg.solveBudgetSweep(cmdps, budgets);
+        for (int s = 0; s < budgets.length; s++) {
+            double expectedReward = solutions[s].getExpectedReward();
             System.out.println("Expected reward budget " + s + ": " + expectedReward);
         }
     }
@@ -198,22 +205,25 @@ public class Homework {
 
         CMDP[] list = new CMDP[users];
 
+        // users are copies of one child and one adult model, sharing their costs
+        CMDP child = UserGenerator.getCMDPChild();
+        CMDP adult = UserGenerator.getCMDPAdult();
+        for (CMDP tmp: new CMDP[]{child, adult}){
+            for (int s = 0; s < tmp.getNumStates(); s++) {
+                for (int a = 0; a < tmp.getNumActions(); a++) {
+                    tmp.assignCost(s, a, 2 * a);
+                }
+            }
+        }
+
         int c = (int) Math.floor(users * ratio/ (1 +ratio));
 //        System.out.println("###### HOW MANY CHILDREN YOU GOT BRO: " + c);
         for (int i = 0; i < users ; i++) {
             if (i < c) {
-                list[i] = UserGenerator.getCMDPChild();
+                list[i] = child.copy();
             }
             else {
-                list[i] = UserGenerator.getCMDPAdult();
-            }
-        }
-
-        for (CMDP tmp: list){
-            for (int s = 0; s < tmp.getNumStates(); s++) {
-                for (int a = 0; a < tmp.getNumActions(); a++) {
-                    tmp.assignCost(s, a, 2 * a);
-                }
+                list[i] = adult.copy();
             }
         }
 
@@ -238,6 +248,37 @@ public class Homework {
 
     }
 
+    /**
+     * Same population as task5, but users are generated on the fly and
+     * streamed through a PopulationPipeline, so the heap does not grow with
+     * the number of users
+     */
+    public static double[] task5Streaming(double ratio, int users) {
+        int c = (int) Math.floor(users * ratio/ (1 +ratio));
+        Iterable<PopulationPipeline.User> population = () -> IntStream.range(0, users)
+                .mapToObj(i -> new PopulationPipeline.User(Integer.toString(i), i < c ? "child" : "adult", new TreeMap<String, String>()))
+                .iterator();
+
+        PopulationPipeline pipeline = new PopulationPipeline((segment, overrides) -> {
+            CMDP cmdp = segment.equals("child") ? UserGenerator.getCMDPChild() : UserGenerator.getCMDPAdult();
+            for (int s = 0; s < cmdp.getNumStates(); s++) {
+                for (int a = 0; a < cmdp.getNumActions(); a++) {
+                    cmdp.assignCost(s, a, 2 * a);
+                }
+            }
+            return cmdp;
+        });
+
+        double start_time = System.currentTimeMillis();
+        PopulationPipeline.Summary summary = pipeline.run(population, 10, (user, type, reward, cost) -> {});
+        double end_time = System.currentTimeMillis();
+        System.out.println("Expected cost total: " + summary.getExpectedCost());
+        System.out.println("Mean reward: " + summary.getSimulatedReward() / users);
+        System.out.println("Mean cost: " + summary.getSimulatedCost() / users);
+
+        return new double[]{ratio, end_time - start_time};
+    }
+
     public static void main(String[] args) {
 //
 //        int[] array = new int[]{10, 20, 30, 40, 50};
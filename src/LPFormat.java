@@ -0,0 +1,237 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.apache.commons.math3.optim.linear.Relationship;
+
+
+/**
+ * Export of a LinearProgram for external solvers, in free MPS format and in
+ * the CPLEX LP format. Rows are named R0, R1, ..., columns X0, X1, ... and the
+ * objective row is named OBJ. Numbers are written with the shortest decimal
+ * representation that reads back to the same double. Neither format has NaN
+ * or infinite coefficients, an LP with one is rejected before anything is
+ * written.
+ */
+public class LPFormat {
+	private static final int TERMS_PER_LINE = 8;
+
+	/**
+	 * Write free MPS with an OBJSENSE MAX section
+	 * @param lp linear program with finite coefficients and rhs
+	 * @param fileName target file, replaced if it exists
+	 */
+	public static void writeMPS(LinearProgram lp, String fileName) {
+		checkFinite(lp);
+		try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(fileName), StandardCharsets.US_ASCII)) {
+			printMPS(lp, writer);
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Write free MPS with an OBJSENSE MAX section
+	 * @param lp linear program with finite coefficients and rhs
+	 * @param writer target, flushed but not closed
+	 */
+	public static void writeMPS(LinearProgram lp, Writer writer) {
+		checkFinite(lp);
+		printMPS(lp, writer);
+	}
+
+	private static void printMPS(LinearProgram lp, Writer writer) {
+		PrintWriter out = new PrintWriter(writer);
+		out.println("NAME OCCUPANCY");
+		out.println("OBJSENSE");
+		out.println("    MAX");
+
+		out.println("ROWS");
+		out.println(" N  OBJ");
+		for(int r=0; r<lp.getNumRows(); r++) {
+			out.println(" " + mpsType(lp.getRelationship(r)) + "  R" + r);
+		}
+
+		out.println("COLUMNS");
+		for(int j=0; j<lp.getNumColumns(); j++) {
+			// a column without entries is declared by its objective coefficient
+			if(lp.getObjective(j) != 0.0 || lp.getColumnStart(j) == lp.getColumnEnd(j)) {
+				out.println("    X" + j + "  OBJ  " + number(lp.getObjective(j)));
+			}
+			for(int k=lp.getColumnStart(j); k<lp.getColumnEnd(j); k++) {
+				out.println("    X" + j + "  R" + lp.getEntryRow(k) + "  " + number(lp.getEntryValue(k)));
+			}
+		}
+
+		out.println("RHS");
+		for(int r=0; r<lp.getNumRows(); r++) {
+			if(lp.getRhs(r) != 0.0) {
+				out.println("    RHS  R" + r + "  " + number(lp.getRhs(r)));
+			}
+		}
+
+		out.println("ENDATA");
+		out.flush();
+		if(out.checkError()) {
+			throw new RuntimeException("Could not write MPS");
+		}
+	}
+
+	/**
+	 * Write the CPLEX LP format
+	 * @param lp linear program with finite coefficients and rhs
+	 * @param fileName target file, replaced if it exists
+	 */
+	public static void writeLP(LinearProgram lp, String fileName) {
+		checkFinite(lp);
+		try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(fileName), StandardCharsets.US_ASCII)) {
+			printLP(lp, writer);
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Write the CPLEX LP format
+	 * @param lp linear program with finite coefficients and rhs
+	 * @param writer target, flushed but not closed
+	 */
+	public static void writeLP(LinearProgram lp, Writer writer) {
+		checkFinite(lp);
+		printLP(lp, writer);
+	}
+
+	private static void printLP(LinearProgram lp, Writer writer) {
+		int nRows = lp.getNumRows();
+		int nCols = lp.getNumColumns();
+
+		// transpose to rows in one counting pass and one filling pass
+		int[] rowStart = new int[nRows+1];
+		for(int k=0; k<lp.getNumNonZeros(); k++) {
+			rowStart[lp.getEntryRow(k)+1]++;
+		}
+		for(int r=0; r<nRows; r++) {
+			rowStart[r+1] += rowStart[r];
+		}
+		int[] next = new int[nRows];
+		System.arraycopy(rowStart, 0, next, 0, nRows);
+		int[] column = new int[lp.getNumNonZeros()];
+		double[] value = new double[lp.getNumNonZeros()];
+		for(int j=0; j<nCols; j++) {
+			for(int k=lp.getColumnStart(j); k<lp.getColumnEnd(j); k++) {
+				int r = lp.getEntryRow(k);
+				column[next[r]] = j;
+				value[next[r]] = lp.getEntryValue(k);
+				next[r]++;
+			}
+		}
+
+		PrintWriter out = new PrintWriter(writer);
+		out.println("Maximize");
+		out.print(" OBJ:");
+		int terms = 0;
+		for(int j=0; j<nCols; j++) {
+			if(lp.getObjective(j) != 0.0) {
+				terms = term(out, lp.getObjective(j), j, terms);
+			}
+		}
+		if(terms == 0 && nCols > 0) {
+			out.print(" 0 X0");
+		}
+		out.println();
+
+		out.println("Subject To");
+		for(int r=0; r<nRows; r++) {
+			out.print(" R" + r + ":");
+			terms = 0;
+			for(int k=rowStart[r]; k<rowStart[r+1]; k++) {
+				terms = term(out, value[k], column[k], terms);
+			}
+			if(terms == 0) {
+				out.print(" 0 X0");
+			}
+			out.println(" " + lpOperator(lp.getRelationship(r)) + " " + number(lp.getRhs(r)));
+		}
+
+		// columns without entries are declared with their default bounds
+		boolean[] used = new boolean[nCols];
+		for(int k=0; k<column.length; k++) {
+			used[column[k]] = true;
+		}
+		boolean bounds = false;
+		for(int j=0; j<nCols; j++) {
+			if(!used[j] && lp.getObjective(j) == 0.0) {
+				if(!bounds) {
+					out.println("Bounds");
+					bounds = true;
+				}
+				out.println(" X" + j + " >= 0");
+			}
+		}
+
+		out.println("End");
+		out.flush();
+		if(out.checkError()) {
+			throw new RuntimeException("Could not write LP");
+		}
+	}
+
+	/**
+	 * Reject NaN and infinite objective coefficients, entries and rhs
+	 */
+	private static void checkFinite(LinearProgram lp) {
+		for(int j=0; j<lp.getNumColumns(); j++) {
+			if(!Double.isFinite(lp.getObjective(j))) {
+				throw new IllegalArgumentException("Objective coefficient of X" + j + " is " + lp.getObjective(j));
+			}
+			for(int k=lp.getColumnStart(j); k<lp.getColumnEnd(j); k++) {
+				if(!Double.isFinite(lp.getEntryValue(k))) {
+					throw new IllegalArgumentException("Coefficient of X" + j + " in R" + lp.getEntryRow(k) + " is " + lp.getEntryValue(k));
+				}
+			}
+		}
+		for(int r=0; r<lp.getNumRows(); r++) {
+			if(!Double.isFinite(lp.getRhs(r))) {
+				throw new IllegalArgumentException("Rhs of R" + r + " is " + lp.getRhs(r));
+			}
+		}
+	}
+
+	/**
+	 * Print a term, breaking lines so that they stay short
+	 * @return number of terms printed so far
+	 */
+	private static int term(PrintWriter out, double coefficient, int j, int terms) {
+		if(terms > 0 && terms % TERMS_PER_LINE == 0) {
+			out.println();
+			out.print("  ");
+		}
+		out.print(coefficient < 0.0 ? " - " : " + ");
+		out.print(number(Math.abs(coefficient)) + " X" + j);
+		return terms+1;
+	}
+
+	private static String mpsType(Relationship relationship) {
+		switch(relationship) {
+		case LEQ: return "L";
+		case GEQ: return "G";
+		default: return "E";
+		}
+	}
+
+	private static String lpOperator(Relationship relationship) {
+		switch(relationship) {
+		case LEQ: return "<=";
+		case GEQ: return ">=";
+		default: return "=";
+		}
+	}
+
+	private static String number(double x) {
+		return x == Math.rint(x) && Math.abs(x) < 1e15 ? Long.toString((long) x) : Double.toString(x);
+	}
+}
@@ -0,0 +1,57 @@
+
+public class LPResult {
+	private double[] point;
+	private double value;
+	private double[] duals;
+	private int[] basis;
+	private int iterations;
+
+	public LPResult(double[] point, double value, double[] duals, int[] basis, int iterations) {
+		this.point = point;
+		this.value = value;
+		this.duals = duals;
+		this.basis = basis;
+		this.iterations = iterations;
+	}
+
+	/**
+	 * Get optimal value of each column
+	 * @return primal solution
+	 */
+	public double[] getPoint() {
+		return point;
+	}
+
+	/**
+	 * Get optimal objective value
+	 * @return objective value
+	 */
+	public double getValue() {
+		return value;
+	}
+
+	/**
+	 * Get shadow price of each row, or null if the backend does not report them
+	 * @return dual solution
+	 */
+	public double[] getDuals() {
+		return duals;
+	}
+
+	/**
+	 * Get the optimal basis, one entry per row. Entry j >= 0 is column j,
+	 * entry -(r+1) is the slack of row r. Null if the backend has no basis.
+	 * @return basis
+	 */
+	public int[] getBasis() {
+		return basis;
+	}
+
+	/**
+	 * Get number of iterations used by the backend
+	 * @return iterations
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+}
@@ -0,0 +1,25 @@
+
+/**
+ * Backend that solves the occupancy-measure LPs built by the planner.
+ */
+public interface LPSolver {
+
+	/**
+	 * Maximize the objective of a linear program
+	 * @param lp linear program
+	 * @return optimal solution
+	 */
+	public LPResult solve(LinearProgram lp);
+
+	/**
+	 * Maximize the objective starting from a basis, e.g. of an earlier solve
+	 * of the same program with a different right-hand side. Backends without
+	 * warm start ignore the basis.
+	 * @param lp linear program
+	 * @param basis starting basis in the encoding of LPResult.getBasis, may be null
+	 * @return optimal solution
+	 */
+	public default LPResult solve(LinearProgram lp, int[] basis) {
+		return solve(lp);
+	}
+}
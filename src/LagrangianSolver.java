@@ -0,0 +1,350 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.apache.commons.math3.optim.linear.NoFeasibleSolutionException;
+import org.apache.commons.math3.optim.linear.Relationship;
+
+
+/**
+ * Dantzig-Wolfe decomposition of the multi-agent CMDP. The cost constraint
+ * is the only coupling, so with price lambda on it every agent solves its own
+ * MDP with reward R - lambda*C. A small master LP mixes the deterministic
+ * policies found so far and provides the next lambda.
+ * The solver keeps its columns between calls of improve, so it can be run
+ * for a limited time and resumed later. Every master solution is a feasible
+ * plan and every lambda gives an upper bound on the optimal reward.
+ */
+public class LagrangianSolver {
+	private static final double TOLERANCE = 1e-7;
+	private static final double EVALUATION_TOL = 1e-11;
+
+	private final CMDP[] cmdps;
+	private final double costLimit;
+	private final LPSolver masterSolver = new SparseSimplexSolver();
+	private int maxIterations = 1000;
+
+	private final List<List<Column>> columns;
+	private final int[][] lastPolicy;
+	private final double[][] rewards;
+	private final double[][] costs;
+	private final PolicyIteration policyIteration = new PolicyIteration();
+
+	// state of the column generation, master is null until the first call of improve
+	private final double[] values;
+	private LPResult master = null;
+	private Solution solution = null;
+	private double upperBound = Double.POSITIVE_INFINITY;
+	private boolean converged = false;
+	private int rounds = 0;
+
+	public LagrangianSolver(CMDP[] cmdps, double costLimit) {
+		this.cmdps = cmdps;
+		this.costLimit = costLimit;
+
+		columns = new ArrayList<List<Column>>();
+		lastPolicy = new int[cmdps.length][];
+		rewards = new double[cmdps.length][];
+		costs = new double[cmdps.length][];
+		for(int i=0; i<cmdps.length; i++) {
+			columns.add(new ArrayList<Column>());
+			lastPolicy[i] = new int[cmdps[i].getNumStates()];
+			rewards[i] = ValueIteration.rewardVector(cmdps[i]);
+			costs[i] = ValueIteration.costVector(cmdps[i]);
+		}
+		policyIteration.setTolerance(EVALUATION_TOL);
+		values = new double[cmdps.length];
+	}
+
+	/**
+	 * Set maximum number of column generation rounds
+	 * @param maxIterations maximum number of rounds
+	 */
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	public Solution solve() {
+		improve(Long.MAX_VALUE, maxIterations);
+		return getSolution();
+	}
+
+	/**
+	 * Run column generation rounds until the gap is closed, the deadline has
+	 * passed or maxRounds rounds were run. The first call computes the
+	 * reward-maximizing and cost-minimizing policies before it checks the
+	 * deadline, so that a feasible plan is always available afterwards.
+	 * @param deadline value of System.nanoTime() after which no round is started, Long.MAX_VALUE for none
+	 * @param maxRounds maximum number of rounds of this call
+	 * @return true if the current plan is optimal
+	 */
+	public boolean improve(long deadline, int maxRounds) {
+		int nAgents = cmdps.length;
+		long start = System.nanoTime();
+
+		if(master == null) {
+			// start with the reward-maximizing and the cost-minimizing policy of each agent, lambda = 0 gives the first bound
+			priceAll(0.0, 1.0, values);
+			upperBound = 0.0;
+			for(int i=0; i<nAgents; i++) {
+				upperBound += values[i];
+			}
+			priceAll(1.0, 0.0, values);
+			master = solveMaster();
+		}
+
+		for(int round=0; round<maxRounds && !converged && (deadline == Long.MAX_VALUE || System.nanoTime() - start < deadline - start); round++) {
+			double lambda = master.getDuals()[nAgents];
+
+			int added = priceAll(lambda, 1.0, values);
+			rounds++;
+
+			// Lagrangian dual bound lambda*L + sum_i max_pi (R_i - lambda*C_i)
+			double bound = lambda * costLimit;
+			for(int i=0; i<nAgents; i++) {
+				bound += values[i];
+			}
+			upperBound = Math.min(upperBound, bound);
+
+			if(added == 0 || bound - master.getValue() <= TOLERANCE * (1.0 + Math.abs(master.getValue()))) {
+				converged = true;
+			}
+			else {
+				master = solveMaster();
+				solution = null;
+			}
+		}
+
+		return converged;
+	}
+
+	/**
+	 * Get the plan of the current master
+	 * @return solution with randomized stationary policies
+	 */
+	public Solution getSolution() {
+		if(solution == null) {
+			solution = buildSolution(master);
+		}
+		return solution;
+	}
+
+	/**
+	 * Get the lowest Lagrangian bound found so far
+	 * @return upper bound on the optimal expected reward
+	 */
+	public double getUpperBound() {
+		return upperBound;
+	}
+
+	/**
+	 * Check whether the gap between the plan and the bound of the last round is closed
+	 * @return true if the current plan is optimal
+	 */
+	public boolean isConverged() {
+		return converged;
+	}
+
+	/**
+	 * Get number of column generation rounds run so far
+	 * @return rounds
+	 */
+	public int getRounds() {
+		return rounds;
+	}
+
+	public double getCostLimit() {
+		return costLimit;
+	}
+
+	/**
+	 * Solve all agent subproblems in parallel and add their best responses to the master
+	 * @param lambda price of the cost constraint
+	 * @param rewardWeight weight of the reward, 0 gives the cost-minimizing policy
+	 * @param values receives the optimal value of each subproblem from the initial state
+	 * @return number of new columns
+	 */
+	private int priceAll(double lambda, double rewardWeight, double[] values) {
+		boolean[] isNew = new boolean[cmdps.length];
+		IntStream.range(0, cmdps.length).parallel().forEach(i -> {
+			CMDP cmdp = cmdps[i];
+			double[] lagrangianRewards = new double[rewards[i].length];
+			for(int k=0; k<lagrangianRewards.length; k++) {
+				lagrangianRewards[k] = rewardWeight * rewards[i][k] - lambda * costs[i][k];
+			}
+
+			ValueIteration.Result best = policyIteration.solve(cmdp, cmdp.getDiscountFactor(), lagrangianRewards, lastPolicy[i]);
+			int[] policy = best.getPolicy();
+			values[i] = best.getValues()[cmdp.getInitialState()];
+			if(rewardWeight > 0.0) {
+				lastPolicy[i] = policy;
+			}
+
+			if(!containsPolicy(columns.get(i), policy)) {
+				double reward = ValueIteration.evaluate(cmdp, cmdp.getDiscountFactor(), rewards[i], policy, EVALUATION_TOL)[cmdp.getInitialState()];
+				double cost = ValueIteration.evaluate(cmdp, cmdp.getDiscountFactor(), costs[i], policy, EVALUATION_TOL)[cmdp.getInitialState()];
+				columns.get(i).add(new Column(policy, reward, cost));
+				isNew[i] = true;
+			}
+		});
+
+		int added = 0;
+		for(int i=0; i<cmdps.length; i++) {
+			if(isNew[i]) {
+				added++;
+			}
+		}
+		return added;
+	}
+
+	private boolean containsPolicy(List<Column> agentColumns, int[] policy) {
+		for(Column column : agentColumns) {
+			if(Arrays.equals(column.policy, policy)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Master LP over mixtures of the generated policies. Rows 0..n-1 are the
+	 * convexity constraints of the agents, row n is the cost constraint.
+	 */
+	private LPResult solveMaster() {
+		int nAgents = cmdps.length;
+		LinearProgram lp = new LinearProgram();
+		for(int i=0; i<nAgents; i++) {
+			lp.addRow(Relationship.EQ, 1.0);
+		}
+		int costRow = lp.addRow(Relationship.LEQ, costLimit);
+
+		int[] rows = new int[2];
+		double[] values = new double[2];
+		for(int i=0; i<nAgents; i++) {
+			for(Column column : columns.get(i)) {
+				rows[0] = i;
+				values[0] = 1.0;
+				rows[1] = costRow;
+				values[1] = column.cost;
+				lp.addColumn(column.reward, rows, values, 2);
+			}
+		}
+
+		return masterSolver.solve(lp);
+	}
+
+	private Solution buildSolution(LPResult master) {
+		if(master == null) {
+			throw new NoFeasibleSolutionException();
+		}
+
+		int nAgents = cmdps.length;
+		double[] weights = master.getPoint();
+		double expectedReward = 0.0;
+		double expectedCost = 0.0;
+		double[] expectedRewardAgent = new double[nAgents];
+		double[] expectedCostAgent = new double[nAgents];
+		ArrayList<double[][]> policies = new ArrayList<double[][]>();
+
+		int col = 0;
+		for(int i=0; i<nAgents; i++) {
+			CMDP cmdp = cmdps[i];
+			double[][] flow = new double[cmdp.getNumStates()][cmdp.getNumActions()];
+			Column heaviest = null;
+			double heaviestWeight = -1.0;
+
+			for(Column column : columns.get(i)) {
+				double w = weights[col++];
+				if(w > heaviestWeight) {
+					heaviestWeight = w;
+					heaviest = column;
+				}
+
+				if(w > 0.0) {
+					double[] occupancy = occupancy(cmdp, column.policy);
+					for(int s=0; s<cmdp.getNumStates(); s++) {
+						flow[s][column.policy[s]] += w * occupancy[s];
+					}
+				}
+				expectedRewardAgent[i] += w * column.reward;
+				expectedCostAgent[i] += w * column.cost;
+			}
+			expectedReward += expectedRewardAgent[i];
+			expectedCost += expectedCostAgent[i];
+
+			// mixing occupancy measures gives a stationary randomized policy
+			double[][] policy = new double[cmdp.getNumStates()][cmdp.getNumActions()];
+			for(int s=0; s<cmdp.getNumStates(); s++) {
+				double total = 0.0;
+				for(int a=0; a<cmdp.getNumActions(); a++) {
+					total += flow[s][a];
+				}
+
+				if(total > 0.0) {
+					for(int a=0; a<cmdp.getNumActions(); a++) {
+						policy[s][a] = flow[s][a] / total;
+					}
+				}
+				else {
+					policy[s][heaviest.policy[s]] = 1.0;
+				}
+			}
+			policies.add(policy);
+		}
+
+		return new Solution(policies, expectedReward, expectedCost, expectedRewardAgent, expectedCostAgent);
+	}
+
+	/**
+	 * Discounted state occupancy of a deterministic policy, fixed point of d = e_0 + gamma * P_pi' d
+	 */
+	private double[] occupancy(CMDP cmdp, int[] policy) {
+		int nStates = cmdp.getNumStates();
+		int nActions = cmdp.getNumActions();
+		int[] start = cmdp.getSuccessorStarts();
+		int[] successor = cmdp.getSuccessorStates();
+		double[] probability = cmdp.getSuccessorProbabilities();
+		double gamma = cmdp.getDiscountFactor();
+		double[] d = new double[nStates];
+		double[] next = new double[nStates];
+		double delta;
+		do {
+			Arrays.fill(next, 0.0);
+			next[cmdp.getInitialState()] = 1.0;
+			for(int s=0; s<nStates; s++) {
+				if(d[s] != 0.0) {
+					int sa = s*nActions+policy[s];
+					for(int k=start[sa]; k<start[sa+1]; k++) {
+						next[successor[k]] += gamma * probability[k] * d[s];
+					}
+				}
+			}
+
+			delta = 0.0;
+			for(int s=0; s<nStates; s++) {
+				delta = Math.max(delta, Math.abs(next[s] - d[s]));
+			}
+
+			double[] tmp = d;
+			d = next;
+			next = tmp;
+		} while(delta > EVALUATION_TOL);
+		return d;
+	}
+
+	/**
+	 * Deterministic policy of one agent with its expected reward and cost
+	 */
+	private static class Column {
+		public final int[] policy;
+		public final double reward;
+		public final double cost;
+
+		public Column(int[] policy, double reward, double cost) {
+			this.policy = policy;
+			this.reward = reward;
+			this.cost = cost;
+		}
+	}
+}
@@ -0,0 +1,160 @@
+import java.util.Arrays;
+
+import org.apache.commons.math3.optim.linear.Relationship;
+
+
+/**
+ * Sparse linear program max c'x s.t. Ax (<=,=,>=) b, x >= 0.
+ * The constraint matrix is stored column-wise (CSC) and non-negativity is
+ * implied by the variable bounds, so it never appears as explicit rows.
+ */
+public class LinearProgram {
+	private int nRows = 0;
+	private int nCols = 0;
+	private int nnz = 0;
+
+	private Relationship[] rowType = new Relationship[16];
+	private double[] rhs = new double[16];
+
+	private double[] objective = new double[16];
+	private int[] colStart = new int[17];
+	private int[] rowIndex = new int[64];
+	private double[] value = new double[64];
+
+	/**
+	 * Remove all rows and columns, the storage is kept for the next LP
+	 */
+	public void clear() {
+		nRows = 0;
+		nCols = 0;
+		nnz = 0;
+	}
+
+	/**
+	 * Make room for further rows, columns and non-zeros, so that adding them
+	 * does not grow the storage
+	 * @param moreRows number of rows to be added
+	 * @param moreCols number of columns to be added
+	 * @param moreNonZeros number of non-zeros to be added
+	 */
+	public void reserve(int moreRows, int moreCols, int moreNonZeros) {
+		if(nRows+moreRows > rowType.length) {
+			rowType = Arrays.copyOf(rowType, nRows+moreRows);
+			rhs = Arrays.copyOf(rhs, nRows+moreRows);
+		}
+		if(nCols+moreCols > objective.length) {
+			objective = Arrays.copyOf(objective, nCols+moreCols);
+			colStart = Arrays.copyOf(colStart, nCols+moreCols+1);
+		}
+		if(nnz+moreNonZeros > rowIndex.length) {
+			rowIndex = Arrays.copyOf(rowIndex, nnz+moreNonZeros);
+			value = Arrays.copyOf(value, nnz+moreNonZeros);
+		}
+	}
+
+	/**
+	 * Add a constraint row without coefficients, columns fill it later
+	 * @param relationship relation between row activity and rhs
+	 * @param rhs right-hand side
+	 * @return row id
+	 */
+	public int addRow(Relationship relationship, double rhs) {
+		if(nRows == rowType.length) {
+			rowType = Arrays.copyOf(rowType, 2*nRows);
+			this.rhs = Arrays.copyOf(this.rhs, 2*nRows);
+		}
+
+		rowType[nRows] = relationship;
+		this.rhs[nRows] = rhs;
+		return nRows++;
+	}
+
+	/**
+	 * Add a non-negative variable with its column of constraint coefficients
+	 * @param objectiveCoefficient objective coefficient
+	 * @param rows row ids, must be distinct
+	 * @param values coefficients corresponding to rows
+	 * @param count number of entries to read from rows and values
+	 * @return column id
+	 */
+	public int addColumn(double objectiveCoefficient, int[] rows, double[] values, int count) {
+		if(nCols == objective.length) {
+			objective = Arrays.copyOf(objective, 2*nCols);
+			colStart = Arrays.copyOf(colStart, 2*nCols+1);
+		}
+		if(nnz+count > rowIndex.length) {
+			int capacity = Math.max(2*rowIndex.length, nnz+count);
+			rowIndex = Arrays.copyOf(rowIndex, capacity);
+			value = Arrays.copyOf(value, capacity);
+		}
+
+		for(int k=0; k<count; k++) {
+			assert rows[k] < nRows : "Unknown row "+rows[k];
+
+			if(values[k] != 0.0) {
+				rowIndex[nnz] = rows[k];
+				value[nnz] = values[k];
+				nnz++;
+			}
+		}
+
+		objective[nCols] = objectiveCoefficient;
+		colStart[nCols+1] = nnz;
+		return nCols++;
+	}
+
+	/**
+	 * Change the right-hand side of a row
+	 * @param row row id
+	 * @param rhs new right-hand side
+	 */
+	public void setRhs(int row, double rhs) {
+		assert row < nRows;
+		this.rhs[row] = rhs;
+	}
+
+	public int getNumRows() {
+		return nRows;
+	}
+
+	public int getNumColumns() {
+		return nCols;
+	}
+
+	public int getNumNonZeros() {
+		return nnz;
+	}
+
+	public Relationship getRelationship(int row) {
+		return rowType[row];
+	}
+
+	public double getRhs(int row) {
+		return rhs[row];
+	}
+
+	public double getObjective(int col) {
+		return objective[col];
+	}
+
+	/**
+	 * Get first entry of a column, entries run up to getColumnEnd(col)
+	 * @param col column id
+	 * @return index of the first entry
+	 */
+	public int getColumnStart(int col) {
+		return colStart[col];
+	}
+
+	public int getColumnEnd(int col) {
+		return colStart[col+1];
+	}
+
+	public int getEntryRow(int k) {
+		return rowIndex[k];
+	}
+
+	public double getEntryValue(int k) {
+		return value[k];
+	}
+}
@@ -1,3 +1,5 @@
+import java.util.Arrays;
+
 
 public class MDP {
 	private int nStates;
@@ -6,11 +8,15 @@ public class MDP {
 	
 	private double discountFactor;
 	
-	private double[][] rewardFunction;
+	private CopyOnWriteTable rewardFunction;
 	private double minReward = Double.POSITIVE_INFINITY;
 	private double maxReward = Double.NEGATIVE_INFINITY;
+	private boolean rewardRangeValid = false;
 	
-	private double[][][] transitionFunction;
+	// successors of (s,a) are entries successorStart[s*nActions+a] .. successorStart[s*nActions+a+1]-1, sorted by state
+	private int[] successorStart;
+	private int[] successorState;
+	private double[] successorProbability;
 	
 	
 	public MDP(int nStates, int nActions, int initialState, double discountFactor) {
@@ -20,6 +26,21 @@ public class MDP {
 		this.discountFactor = discountFactor;
 	}
 	
+	/**
+	 * Create a model that shares transitions and rewards with another model,
+	 * rewards are copied on write
+	 * @param source model to share with
+	 */
+	protected MDP(MDP source) {
+		this(source.nStates, source.nActions, source.initialState, source.discountFactor);
+		this.successorStart = source.successorStart;
+		this.successorState = source.successorState;
+		this.successorProbability = source.successorProbability;
+		if(source.rewardFunction != null) {
+			this.rewardFunction = source.rewardFunction.share();
+		}
+	}
+	
 	/**
 	 * Get number of states
 	 * @return number of states
@@ -53,29 +74,52 @@ public class MDP {
 	}
 	
 	/**
-	 * Set reward function
+	 * Set reward function, the values are copied
 	 * @param rewardFunction reward function
 	 */
 	public void setRewardFunction(double[][] rewardFunction) {
-		this.rewardFunction = rewardFunction;
-		
-		minReward = Double.POSITIVE_INFINITY;
-		maxReward = Double.NEGATIVE_INFINITY;
-		
-		for(int s=0; s<nStates; s++) {
-			for(int a=0; a<nActions; a++) {
-				minReward = Math.min(minReward, rewardFunction[s][a]);
-				maxReward = Math.max(maxReward, rewardFunction[s][a]);
-			}
-		}
+		this.rewardFunction = new CopyOnWriteTable(rewardFunction);
+		rewardRangeValid = false;
+	}
+	
+	/**
+	 * Set rewards from a flat array, which must not be modified afterwards
+	 * @param rewards reward of (s,a) at s*nActions+a
+	 */
+	public void setRewards(double[] rewards) {
+		assert rewards.length == nStates*nActions;
+		this.rewardFunction = new CopyOnWriteTable(rewards, nActions);
+		rewardRangeValid = false;
 	}
 	
 	/**
-	 * Get reward function
+	 * Get a copy of the reward function. Each call allocates new arrays and
+	 * changing them does not change the model, read access in bulk should use
+	 * getRewards instead.
 	 * @return reward function
 	 */
 	public double[][] getRewardFunction() {
-		return rewardFunction;
+		return rewardFunction.toArray();
+	}
+	
+	/**
+	 * Get rewards without copying. The array is not changed by later
+	 * assignments and must not be modified.
+	 * @return reward of (s,a) at s*nActions+a
+	 */
+	public double[] getRewards() {
+		return rewardFunction.values();
+	}
+	
+	/**
+	 * Assign reward to a state-action pair
+	 * @param s state
+	 * @param a action
+	 * @param reward reward corresponding to s,a
+	 */
+	public void assignReward(int s, int a, double reward) {
+		rewardFunction.set(s, a, reward);
+		rewardRangeValid = false;
 	}
 	
 	/**
@@ -86,7 +130,7 @@ public class MDP {
 	 */
 	public double getReward(int s, int a) {
 		assert s<nStates && a<nActions;
-		return rewardFunction[s][a];
+		return rewardFunction.get(s, a);
 	}
 	
 	/**
@@ -94,6 +138,7 @@ public class MDP {
 	 * @return min reward
 	 */
 	public double getMinReward() {
+		updateRewardRange();
 		return minReward;
 	}
 	
@@ -102,15 +147,115 @@ public class MDP {
 	 * @return max reward
 	 */
 	public double getMaxReward() {
+		updateRewardRange();
 		return maxReward;
 	}
 	
+	private void updateRewardRange() {
+		if(!rewardRangeValid) {
+			minReward = Double.POSITIVE_INFINITY;
+			maxReward = Double.NEGATIVE_INFINITY;
+			
+			for(double r : rewardFunction.values()) {
+				minReward = Math.min(minReward, r);
+				maxReward = Math.max(maxReward, r);
+			}
+			rewardRangeValid = true;
+		}
+	}
+	
 	/**
 	 * Set transition function
 	 * @param transitionFunction transition function
 	 */
 	public void setTransitionFunction(double[][][] transitionFunction) {
-		this.transitionFunction = transitionFunction;
+		int nnz = 0;
+		for(int s=0; s<nStates; s++) {
+			for(int a=0; a<nActions; a++) {
+				for(int sNext=0; sNext<nStates; sNext++) {
+					if(transitionFunction[s][a][sNext] != 0.0) {
+						nnz++;
+					}
+				}
+			}
+		}
+
+		successorStart = new int[nStates*nActions+1];
+		successorState = new int[nnz];
+		successorProbability = new double[nnz];
+
+		int k = 0;
+		for(int s=0; s<nStates; s++) {
+			for(int a=0; a<nActions; a++) {
+				for(int sNext=0; sNext<nStates; sNext++) {
+					if(transitionFunction[s][a][sNext] != 0.0) {
+						successorState[k] = sNext;
+						successorProbability[k] = transitionFunction[s][a][sNext];
+						k++;
+					}
+				}
+				successorStart[s*nActions+a+1] = k;
+			}
+		}
+	}
+	
+	/**
+	 * Set sparse transition function
+	 * @param successors successors[s][a] lists the distinct successor states of (s,a)
+	 * @param probabilities probabilities[s][a][i] is the probability of reaching successors[s][a][i]
+	 */
+	public void setTransitions(int[][][] successors, double[][][] probabilities) {
+		int nnz = 0;
+		for(int s=0; s<nStates; s++) {
+			for(int a=0; a<nActions; a++) {
+				for(int i=0; i<successors[s][a].length; i++) {
+					if(probabilities[s][a][i] != 0.0) {
+						nnz++;
+					}
+				}
+			}
+		}
+
+		successorStart = new int[nStates*nActions+1];
+		successorState = new int[nnz];
+		successorProbability = new double[nnz];
+
+		int k = 0;
+		for(int s=0; s<nStates; s++) {
+			for(int a=0; a<nActions; a++) {
+				int start = k;
+				for(int i=0; i<successors[s][a].length; i++) {
+					if(probabilities[s][a][i] != 0.0) {
+						// insertion sort by successor state, lists are short
+						int j = k;
+						while(j > start && successorState[j-1] > successors[s][a][i]) {
+							successorState[j] = successorState[j-1];
+							successorProbability[j] = successorProbability[j-1];
+							j--;
+						}
+						successorState[j] = successors[s][a][i];
+						successorProbability[j] = probabilities[s][a][i];
+						k++;
+					}
+				}
+				successorStart[s*nActions+a+1] = k;
+			}
+		}
+	}
+	
+	/**
+	 * Set transitions in compressed sparse row form. The arrays are used as
+	 * they are and may be shared between models, they must not be modified
+	 * afterwards.
+	 * @param successorStart successors of (s,a) are entries successorStart[s*nActions+a] .. successorStart[s*nActions+a+1]-1
+	 * @param successorState successor state of each entry, sorted within each (s,a)
+	 * @param successorProbability probability of each entry
+	 */
+	public void setTransitions(int[] successorStart, int[] successorState, double[] successorProbability) {
+		assert successorStart.length == nStates*nActions+1 && successorState.length >= successorStart[nStates*nActions];
+		this.successorStart = successorStart;
+		this.successorState = successorState;
+		this.successorProbability = successorProbability;
 	}
 	
 	/**
@@ -121,6 +266,124 @@ public class MDP {
 	 * @return
 	 */
 	public double getTransitionProbability(int s, int a, int sNext) {
-		return transitionFunction[s][a][sNext];
+		for(int k=successorStart[s*nActions+a]; k<successorStart[s*nActions+a+1]; k++) {
+			if(successorState[k] == sNext) {
+				return successorProbability[k];
+			}
+		}
+		return 0.0;
+	}
+	
+	/**
+	 * Get index of the first successor entry of (s,a)
+	 * @param s state s
+	 * @param a action a
+	 * @return first entry, read with getSuccessorState and getSuccessorProbability
+	 */
+	public int getSuccessorStart(int s, int a) {
+		return successorStart[s*nActions+a];
+	}
+	
+	/**
+	 * Get index after the last successor entry of (s,a)
+	 * @param s state s
+	 * @param a action a
+	 * @return end of the entries of (s,a)
+	 */
+	public int getSuccessorEnd(int s, int a) {
+		return successorStart[s*nActions+a+1];
+	}
+	
+	/**
+	 * Get successor state of a transition entry
+	 * @param k entry index
+	 * @return successor state
+	 */
+	public int getSuccessorState(int k) {
+		return successorState[k];
+	}
+	
+	/**
+	 * Get probability of a transition entry
+	 * @param k entry index
+	 * @return transition probability
+	 */
+	public double getSuccessorProbability(int k) {
+		return successorProbability[k];
+	}
+	
+	/**
+	 * Get successor distribution of (s,a) as a dense row
+	 * @param s state s
+	 * @param a action a
+	 * @param out array of length nStates that receives the row, or null
+	 * @return row with the probability of each successor state
+	 */
+	public double[] transitionRow(int s, int a, double[] out) {
+		double[] row = out == null ? new double[nStates] : out;
+		Arrays.fill(row, 0.0);
+		for(int k=successorStart[s*nActions+a]; k<successorStart[s*nActions+a+1]; k++) {
+			row[successorState[k]] = successorProbability[k];
+		}
+		return row;
+	}
+	
+	/**
+	 * Get start of the successor entries of every state-action pair. This and
+	 * the other successor arrays are returned without copying for inner loops
+	 * and must not be modified.
+	 * @return successors of (s,a) are entries [starts[s*nActions+a], starts[s*nActions+a+1])
+	 */
+	public int[] getSuccessorStarts() {
+		return successorStart;
+	}
+	
+	/**
+	 * Get successor state of every transition entry
+	 * @return successor states, indexed like getSuccessorProbabilities
+	 */
+	public int[] getSuccessorStates() {
+		return successorState;
+	}
+	
+	/**
+	 * Get probability of every transition entry
+	 * @return transition probabilities
+	 */
+	public double[] getSuccessorProbabilities() {
+		return successorProbability;
+	}
+	
+	/**
+	 * Get number of non-zero transition probabilities
+	 * @return number of transition entries
+	 */
+	public int getNumTransitions() {
+		return successorStart[nStates*nActions];
+	}
+	
+	/**
+	 * Check whether two models use the same transition arrays
+	 * @param other other model
+	 * @return true if the transitions are shared
+	 */
+	public boolean sharesTransitions(MDP other) {
+		return successorStart == other.successorStart && successorState == other.successorState && successorProbability == other.successorProbability;
+	}
+	
+	/**
+	 * Visit all successors of (s,a) with non-zero probability in increasing state order
+	 * @param s state s
+	 * @param a action a
+	 * @param consumer receives successor state and probability
+	 */
+	public void forEachSuccessor(int s, int a, SuccessorConsumer consumer) {
+		for(int k=successorStart[s*nActions+a]; k<successorStart[s*nActions+a+1]; k++) {
+			consumer.accept(successorState[k], successorProbability[k]);
+		}
+	}
+	
+	public interface SuccessorConsumer {
+		public void accept(int sNext, double probability);
 	}
 }
@@ -0,0 +1,68 @@
+
+/**
+ * Receiver of measurements from the planner and the simulator. Measurements
+ * are named samples: phase timings in nanoseconds, values such as LP sizes,
+ * iteration counts and residuals, and counters. All methods do nothing by
+ * default, implementations must be thread-safe because agents are solved
+ * and simulated in parallel.
+ */
+public interface Metrics {
+	Metrics NOOP = new Metrics() {};
+
+	// phases of a plan, in nanoseconds
+	String PLAN_MODEL = "plan.model";
+	String PLAN_CONSTRAINTS = "plan.constraints";
+	String PLAN_SOLVE = "plan.solve";
+	String PLAN_POLICY = "plan.policy";
+
+	// size and effort of each LP
+	String LP_ROWS = "lp.rows";
+	String LP_COLUMNS = "lp.columns";
+	String LP_NONZEROS = "lp.nonzeros";
+	String LP_ITERATIONS = "lp.iterations";
+
+	// lookups in a PlanningCache
+	String CACHE_HIT = "cache.hit";
+	String CACHE_NEAR_MISS = "cache.nearmiss";
+	String CACHE_MISS = "cache.miss";
+
+	// per agent solved by value or policy iteration
+	String VI_ITERATIONS = "vi.iterations";
+	String VI_RESIDUAL = "vi.residual";
+
+	// phases of a simulation, in nanoseconds
+	String SIMULATE_PREPARE = "simulate.prepare";
+	String SIMULATE_RUN = "simulate.run";
+
+	// simulated agent steps per second, steps are also counted
+	String SIMULATE_THROUGHPUT = "simulate.throughput";
+	String SIMULATE_STEPS = "simulate.steps";
+
+	// sampling tables allocated by a simulation, runs allocate nothing else
+	String SIMULATE_SAMPLERS = "simulate.samplers";
+	String SIMULATE_ROLLOUTS = "simulate.rollouts";
+
+	/**
+	 * Record the duration of a phase
+	 * @param name phase
+	 * @param nanos duration in nanoseconds
+	 */
+	default void recordTime(String name, long nanos) {
+	}
+
+	/**
+	 * Record a sample of a value
+	 * @param name measured quantity
+	 * @param value sample
+	 */
+	default void record(String name, double value) {
+	}
+
+	/**
+	 * Add to a counter
+	 * @param name counter
+	 * @param delta amount to add
+	 */
+	default void increment(String name, long delta) {
+	}
+}
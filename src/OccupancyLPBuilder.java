@@ -0,0 +1,218 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.math3.optim.linear.Relationship;
+
+
+/**
+ * Assembles occupancy-measure LPs in sparse column form. Every column is
+ * emitted in one pass over the successors of its state-action pair, the LP is
+ * sized from the model before it is filled and a builder keeps its column
+ * buffers, so building into a cleared LinearProgram allocates nothing once
+ * the buffers have reached the size of the largest model.
+ * A builder is not thread-safe.
+ */
+public class OccupancyLPBuilder {
+	private int[] rows = new int[16];
+	private double[] values = new double[16];
+
+	/**
+	 * Build the occupancy-measure LP into a new LinearProgram
+	 * @see #build(Population, ResourceLimits, LinearProgram)
+	 */
+	public LinearProgram build(Population population, ResourceLimits limits) {
+		return build(population, limits, new LinearProgram());
+	}
+
+	/**
+	 * Occupancy-measure LP with one flow conservation row per type and state,
+	 * followed by one row per resource for the global limits and the rows of
+	 * the agent and group limits. Resource rows only hold non-zero costs.
+	 * Agents of a type must share their agent limits and groups.
+	 * @param population agent types and their multiplicities
+	 * @param limits global, per-agent and per-group limits
+	 * @param lp target, cleared before it is filled and reusing its storage
+	 * @return lp
+	 */
+	public LinearProgram build(Population population, ResourceLimits limits, LinearProgram lp) {
+		int nTypes = population.getNumTypes();
+		int nResources = limits.getNumResources();
+
+		int nFlowRows = 0;
+		for(int t=0; t<nTypes; t++) {
+			nFlowRows += population.getType(t).getNumStates();
+		}
+		lp.clear();
+		lp.reserve(nFlowRows + nResources * (1 + nTypes + limits.getNumGroups()), 0, 0);
+
+		// flow conservation rows of type t start at rowOffset[t]
+		int[] rowOffset = new int[nTypes];
+		for(int t=0; t<nTypes; t++) {
+			CMDP cmdp = population.getType(t);
+			rowOffset[t] = lp.getNumRows();
+
+			for(int sNext=0; sNext<cmdp.getNumStates(); sNext++) {
+				double rhs = cmdp.getInitialState() == sNext ? population.getMultiplicity(t) : 0.0;
+				lp.addRow(Relationship.EQ, rhs);
+			}
+		}
+
+		// the global row of resource k is resourceRow + k
+		int resourceRow = lp.getNumRows();
+		List<List<int[]>> typeRows = addLimitRows(lp, population, limits);
+
+		// a column holds its outflow, its successors and its costs
+		int nColumns = 0;
+		long nnz = 0;
+		for(int t=0; t<nTypes; t++) {
+			CMDP cmdp = population.getType(t);
+			int numPairs = cmdp.getNumStates() * cmdp.getNumActions();
+			nColumns += numPairs;
+			nnz += cmdp.getNumTransitions() + (long) numPairs * (1 + Math.min(nResources, cmdp.getNumResources()) + typeRows.get(t).size());
+		}
+		lp.reserve(0, nColumns, (int) Math.min(nnz, Integer.MAX_VALUE - 8));
+
+		for(int t=0; t<nTypes; t++) {
+			addOccupancyColumns(lp, population.getType(t), rowOffset[t], resourceRow, nResources, typeRows.get(t));
+		}
+
+		return lp;
+	}
+
+	/**
+	 * Add one row per resource for the global limits, starting at the current
+	 * number of rows, followed by the rows of the agent and group limits
+	 * @return further limit rows of each type as {row, resource}
+	 */
+	public static List<List<int[]>> addLimitRows(LinearProgram lp, Population population, ResourceLimits limits) {
+		int nTypes = population.getNumTypes();
+		int nResources = limits.getNumResources();
+		for(int k=0; k<nResources; k++) {
+			lp.addRow(Relationship.LEQ, Math.min(limits.getGlobalLimit(k), Double.MAX_VALUE));
+		}
+
+		// further limit rows of each type as {row, resource}, all agents of a type share their limits
+		int[] representative = new int[nTypes];
+		Arrays.fill(representative, -1);
+		for(int i=population.getNumAgents()-1; i>=0; i--) {
+			representative[population.getAgentType(i)] = i;
+		}
+
+		List<List<int[]>> typeRows = new ArrayList<List<int[]>>();
+		for(int t=0; t<nTypes; t++) {
+			typeRows.add(new ArrayList<int[]>());
+			for(int k=0; k<nResources; k++) {
+				double limit = limits.getAgentLimit(representative[t], k);
+				if(limit < Double.POSITIVE_INFINITY) {
+					typeRows.get(t).add(new int[]{lp.addRow(Relationship.LEQ, population.getMultiplicity(t) * limit), k});
+				}
+			}
+		}
+
+		for(int g=0; g<limits.getNumGroups(); g++) {
+			boolean[] typeInGroup = new boolean[nTypes];
+			for(int i : limits.getGroupMembers(g)) {
+				typeInGroup[population.getAgentType(i)] = true;
+			}
+
+			for(int k=0; k<nResources; k++) {
+				double limit = limits.getGroupLimit(g, k);
+				if(limit < Double.POSITIVE_INFINITY) {
+					int row = lp.addRow(Relationship.LEQ, limit);
+					for(int t=0; t<nTypes; t++) {
+						if(typeInGroup[t]) {
+							typeRows.get(t).add(new int[]{row, k});
+						}
+					}
+				}
+			}
+		}
+
+		return typeRows;
+	}
+
+	/**
+	 * Add the columns of one type, one per state-action pair. Non-negativity
+	 * is implied by the LP.
+	 * @param flowRow flow conservation row of state 0 of the type
+	 * @param resourceRow global row of resource 0, resource k is at resourceRow + k
+	 * @param nResources number of global resource rows
+	 * @param limitRows further limit rows of the type as {row, resource}
+	 */
+	public void addOccupancyColumns(LinearProgram lp, CMDP cmdp, int flowRow, int resourceRow, int nResources, List<int[]> limitRows) {
+		int nActions = cmdp.getNumActions();
+		int kMax = Math.min(nResources, cmdp.getNumResources());
+		double[][] costs = new double[kMax][];
+		for(int k=0; k<kMax; k++) {
+			costs[k] = cmdp.getCosts(k);
+		}
+		double[] rewards = cmdp.getRewards();
+		double gamma = cmdp.getDiscountFactor();
+		int[] start = cmdp.getSuccessorStarts();
+		int[] successor = cmdp.getSuccessorStates();
+		double[] probability = cmdp.getSuccessorProbabilities();
+
+		int capacity = cmdp.getNumStates() + 1 + kMax + limitRows.size();
+		if(rows.length < capacity) {
+			rows = new int[capacity];
+			values = new double[capacity];
+		}
+		int[] rows = this.rows;
+		double[] values = this.values;
+
+		for(int s=0; s<cmdp.getNumStates(); s++) {
+			for(int a=0; a<nActions; a++) {
+				int sa = s*nActions + a;
+
+				// outflow 1 at s minus discounted inflow at the successors, in row order
+				int count = 0;
+				boolean outflowAdded = false;
+				for(int j=start[sa]; j<start[sa+1]; j++) {
+					int sNext = successor[j];
+					double flow = -1.0 * (gamma * probability[j]);
+
+					if(!outflowAdded && sNext >= s) {
+						rows[count] = flowRow + s;
+						values[count] = 1.0;
+						count++;
+						outflowAdded = true;
+					}
+
+					if(sNext == s) {
+						values[count-1] += flow;
+					}
+					else {
+						rows[count] = flowRow + sNext;
+						values[count] = flow;
+						count++;
+					}
+				}
+				if(!outflowAdded) {
+					rows[count] = flowRow + s;
+					values[count] = 1.0;
+					count++;
+				}
+
+				for(int k=0; k<kMax; k++) {
+					double cost = costs[k][sa];
+					if(cost != 0.0) {
+						rows[count] = resourceRow + k;
+						values[count] = cost;
+						count++;
+					}
+				}
+				for(int[] row : limitRows) {
+					double cost = row[1] < kMax ? costs[row[1]][sa] : 0.0;
+					if(cost != 0.0) {
+						rows[count] = row[0];
+						values[count] = cost;
+						count++;
+					}
+				}
+
+				lp.addColumn(rewards[sa], rows, values, count);
+			}
+		}
+	}
+}
@@ -0,0 +1,192 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.math3.optim.linear.Relationship;
+
+
+/**
+ * Long-lived planner for a changing set of agents. The occupancy-measure LP
+ * is kept between plans: an agent of a known type arriving or leaving only
+ * changes the rhs of the initial state row of its type, an agent of a new
+ * type appends the rows and columns of that type, and a budget update changes
+ * the rhs of a resource row. Each plan starts from the optimal basis of the
+ * previous one, so the simplex only has to repair what changed.
+ * Types are kept when their last agent leaves, with a zero rhs their
+ * occupancy is zero and they are ready for agents of that type to return.
+ */
+public class OnlinePlanner {
+	private final LPSolver lpSolver;
+	private final PlanningAlgorithm algorithm;
+	private final int nResources;
+	private final LinearProgram lp = new LinearProgram();
+	private final OccupancyLPBuilder lpBuilder = new OccupancyLPBuilder();
+
+	private final List<CMDP> types = new ArrayList<CMDP>();
+	private final List<Integer> typeFlowRow = new ArrayList<Integer>();
+	private final List<Integer> typeCount = new ArrayList<Integer>();
+	private final Map<Long,List<Integer>> buckets = new HashMap<Long,List<Integer>>();
+
+	// type of each agent that is present, by agent id
+	private final TreeMap<Integer,Integer> agentType = new TreeMap<Integer,Integer>();
+	private int nextAgentId = 0;
+
+	private int[] basis = new int[0];
+
+	/**
+	 * Create a planner without agents that uses the sparse simplex solver
+	 * @param budgets global limit of each resource
+	 */
+	public OnlinePlanner(double... budgets) {
+		this(new SparseSimplexSolver(), budgets);
+	}
+
+	/**
+	 * Create a planner without agents
+	 * @param lpSolver LP backend, warm starts require a backend that returns its basis
+	 * @param budgets global limit of each resource
+	 */
+	public OnlinePlanner(LPSolver lpSolver, double... budgets) {
+		if(budgets.length == 0) {
+			throw new IllegalArgumentException("At least one resource is required");
+		}
+		this.lpSolver = lpSolver;
+		this.algorithm = new PlanningAlgorithm(lpSolver);
+		this.nResources = budgets.length;
+
+		// resource k is row k, its slack is basic until the budget binds
+		basis = new int[nResources];
+		for(int k=0; k<nResources; k++) {
+			lp.addRow(Relationship.LEQ, Math.min(budgets[k], Double.MAX_VALUE));
+			basis[k] = -(k+1);
+		}
+	}
+
+	/**
+	 * Add an agent
+	 * @param model CMDP of the agent, must not be modified afterwards
+	 * @return agent id, ids are not reused
+	 */
+	public int addAgent(CMDP model) {
+		int type = findType(model);
+		if(type < 0) {
+			type = addType(model);
+		}
+
+		setCount(type, typeCount.get(type)+1);
+		int id = nextAgentId++;
+		agentType.put(id, type);
+		return id;
+	}
+
+	/**
+	 * Remove an agent
+	 * @param id agent id returned by addAgent
+	 */
+	public void removeAgent(int id) {
+		Integer type = agentType.remove(id);
+		if(type == null) {
+			throw new IllegalArgumentException("Unknown agent " + id);
+		}
+		setCount(type, typeCount.get(type)-1);
+	}
+
+	/**
+	 * Change the global limit of a resource
+	 * @param k resource id
+	 * @param budget new limit
+	 */
+	public void updateBudget(int k, double budget) {
+		lp.setRhs(k, Math.min(budget, Double.MAX_VALUE));
+	}
+
+	public double getBudget(int k) {
+		return lp.getRhs(k);
+	}
+
+	public int getNumAgents() {
+		return agentType.size();
+	}
+
+	public int getNumTypes() {
+		return types.size();
+	}
+
+	/**
+	 * Get the ids of the agents that are present
+	 * @return agent ids in increasing order, agent i of a plan has id getAgentIds()[i]
+	 */
+	public int[] getAgentIds() {
+		int[] ids = new int[agentType.size()];
+		int i = 0;
+		for(int id : agentType.keySet()) {
+			ids[i++] = id;
+		}
+		return ids;
+	}
+
+	/**
+	 * Re-optimize for the current agents and budgets
+	 * @return solution in which agent i has id getAgentIds()[i]
+	 */
+	public Solution plan() {
+		LPResult result = lpSolver.solve(lp, basis);
+		if(result.getBasis() != null) {
+			basis = result.getBasis();
+		}
+
+		Population population = new Population();
+		for(CMDP type : types) {
+			population.addType(type);
+		}
+		for(int type : agentType.values()) {
+			population.addAgentOfType(type);
+		}
+		return PlanningAlgorithm.buildSolution(population, result);
+	}
+
+	private int findType(CMDP model) {
+		List<Integer> bucket = buckets.get(Population.fingerprint(model));
+		if(bucket != null) {
+			for(int type : bucket) {
+				if(Population.sameModel(types.get(type), model)) {
+					return type;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Append the flow rows and columns of a new type without agents and put
+	 * its unconstrained optimal policy in the basis
+	 */
+	private int addType(CMDP model) {
+		int flowRow = lp.getNumRows();
+		int firstColumn = lp.getNumColumns();
+		for(int s=0; s<model.getNumStates(); s++) {
+			lp.addRow(Relationship.EQ, 0.0);
+		}
+		lpBuilder.addOccupancyColumns(lp, model, flowRow, 0, nResources, Collections.<int[]>emptyList());
+
+		// the new rows only hold new columns, so the extended basis stays nonsingular
+		basis = Arrays.copyOf(basis, lp.getNumRows());
+		algorithm.crashBlock(model, flowRow, firstColumn, basis);
+
+		types.add(model);
+		typeFlowRow.add(flowRow);
+		typeCount.add(0);
+		int type = types.size()-1;
+		buckets.computeIfAbsent(Population.fingerprint(model), k -> new ArrayList<Integer>()).add(type);
+		return type;
+	}
+
+	private void setCount(int type, int count) {
+		typeCount.set(type, count);
+		lp.setRhs(typeFlowRow.get(type) + types.get(type).getInitialState(), count);
+	}
+}
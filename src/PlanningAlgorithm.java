@@ -1,24 +1,67 @@
 import java.util.*;
 
-
-import org.apache.commons.math3.linear.ArrayRealVector;
-import org.apache.commons.math3.linear.RealVector;
-import org.apache.commons.math3.optim.PointValuePair;
-import org.apache.commons.math3.optim.linear.LinearConstraint;
-import org.apache.commons.math3.optim.linear.LinearConstraintSet;
-import org.apache.commons.math3.optim.linear.LinearObjectiveFunction;
-import org.apache.commons.math3.optim.linear.Relationship;
-import org.apache.commons.math3.optim.linear.SimplexSolver;
-import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
-
-import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 
 public class PlanningAlgorithm {
+    private static final double EVALUATION_TOL = 1e-10;
+
+    private LPSolver lpSolver;
+    private final ValueIteration valueIteration = new ValueIteration();
+    private final PolicyIteration policyIteration = new PolicyIteration();
+    private Metrics metrics = Metrics.NOOP;
+    private PlanningCache cache = null;
+
+    // LP storage reused by consecutive solves, an instance must not solve concurrently
+    private final OccupancyLPBuilder lpBuilder = new OccupancyLPBuilder();
+    private final LinearProgram lp = new LinearProgram();
 
     public PlanningAlgorithm() {
+        this(new SparseSimplexSolver());
+    }
+
+    public PlanningAlgorithm(LPSolver lpSolver) {
+        this.lpSolver = lpSolver;
+    }
+
+    /**
+     * Set the backend used to solve the occupancy-measure LPs
+     * @param lpSolver LP backend
+     */
+    public void setLPSolver(LPSolver lpSolver) {
+        this.lpSolver = lpSolver;
+    }
+
+    /**
+     * Set the receiver of phase timings, LP sizes and iteration counts
+     * @param metrics metrics, Metrics.NOOP to disable
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Set the cache of solved LPs used by solve, it can be shared between instances
+     * @param cache cache, null to disable
+     */
+    public void setCache(PlanningCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Get the value iteration engine used by solveVI, for configuration
+     * @return value iteration engine
+     */
+    public ValueIteration getValueIteration() {
+        return valueIteration;
+    }
 
+    /**
+     * Get the policy iteration engine used by solvePI and solveModifiedPI, for configuration
+     * @return policy iteration engine
+     */
+    public PolicyIteration getPolicyIteration() {
+        return policyIteration;
     }
 
     public Solution solveUnconstrained(CMDP[] cmdps) {
@@ -26,110 +69,270 @@ public class PlanningAlgorithm {
     }
 
     public Solution solve(CMDP[] cmdps, double costLimit) {
-        int nAgents = cmdps.length;
+        return solve(buildPopulation(cmdps, null), costLimit);
+    }
 
-        // assign variable IDs to state-action pairs
-        int[][][] varIDs = new int[nAgents][][];
-        int varCounter = 0;
-        for (int i = 0; i < nAgents; i++) {
-            varIDs[i] = new int[cmdps[i].getNumStates()][cmdps[i].getNumActions()];
-            for (int s = 0; s < cmdps[i].getNumStates(); s++) {
-                for (int a = 0; a < cmdps[i].getNumActions(); a++) {
-                    varIDs[i][s][a] = varCounter;
-                    varCounter++;
-                }
+    /**
+     * Solve the constrained problem with one block of LP variables per agent
+     * type, weighted by the number of agents of that type
+     * @param population agent types and their multiplicities
+     * @param costLimit budget of resource 0 shared by all agents
+     * @return solution with a policy for every agent of the population
+     */
+    public Solution solve(Population population, double costLimit) {
+        return solve(population, new ResourceLimits(costLimit));
+    }
+
+    /**
+     * Solve the constrained problem with limits on several resources
+     * @param cmdps agents
+     * @param limits global, per-agent and per-group limits, agent ids index cmdps
+     * @return solution with a policy for every agent
+     */
+    public Solution solve(CMDP[] cmdps, ResourceLimits limits) {
+        return solve(buildPopulation(cmdps, limits.agentClasses(cmdps.length)), limits);
+    }
+
+    /**
+     * Agents of a type must have the same agent limits and groups, as in a
+     * population built with the classes of the limits
+     */
+    private Solution solve(Population population, ResourceLimits limits) {
+        PlanningCache.Key key = null;
+        int[] basis = null;
+        if (cache != null) {
+            key = PlanningCache.key(population, limits, lpSolver.getClass().getName());
+            Solution cached = cache.get(key, population);
+            if (cached != null) {
+                metrics.increment(Metrics.CACHE_HIT, 1);
+                return cached;
             }
+            basis = cache.nearestBasis(key);
+            metrics.increment(basis != null ? Metrics.CACHE_NEAR_MISS : Metrics.CACHE_MISS, 1);
         }
-        int numVars = varCounter;
 
-        // create objective function
-        RealVector objectiveCoefficients = new ArrayRealVector(numVars);
-        for (int i = 0; i < nAgents; i++) {
-            CMDP cmdp = cmdps[i];
+        long start = System.nanoTime();
+        lpBuilder.build(population, limits, lp);
+        metrics.recordTime(Metrics.PLAN_CONSTRAINTS, System.nanoTime() - start);
 
-            for (int s = 0; s < cmdp.getNumStates(); s++) {
-                for (int a = 0; a < cmdp.getNumActions(); a++) {
-                    objectiveCoefficients.setEntry(varIDs[i][s][a], cmdps[i].getReward(s, a));
-                }
-            }
+        LPResult result = solveLP(lp, basis != null ? basis : crashBasis(population, lp.getNumRows()));
+        Solution solution = extractSolution(population, result);
+        if (cache != null) {
+            cache.put(key, result, solution);
         }
-        LinearObjectiveFunction objectiveFunction = new LinearObjectiveFunction(objectiveCoefficients, 0);
+        return solution;
+    }
 
-        // create constraint set
-        Collection<LinearConstraint> constraints = new ArrayList<LinearConstraint>();
+    /**
+     * Solve the constrained problem without expanding the result to agents,
+     * so that its size does not depend on the number of agents. The cache is
+     * not used.
+     * @param population agent types and their multiplicities
+     * @param limits limits, agents of a type must share their agent limits and groups
+     * @return solution in which entry t is type t, with the expectations summed over its agents
+     */
+    public Solution solveTypes(Population population, ResourceLimits limits) {
+        long start = System.nanoTime();
+        lpBuilder.build(population, limits, lp);
+        metrics.recordTime(Metrics.PLAN_CONSTRAINTS, System.nanoTime() - start);
+
+        LPResult result = solveLP(lp, crashBasis(population, lp.getNumRows()));
+        start = System.nanoTime();
+        Solution solution = buildTypeSolution(population, result);
+        metrics.recordTime(Metrics.PLAN_POLICY, System.nanoTime() - start);
+        return solution;
+    }
 
-        // add flow conservation constraints
-        for (int i = 0; i < nAgents; i++) {
-            CMDP cmdp = cmdps[i];
+    /**
+     * Group agents into types
+     * @param agentClass class of each agent as from ResourceLimits.agentClasses, null if all agents are alike
+     */
+    private Population buildPopulation(CMDP[] cmdps, int[] agentClass) {
+        long start = System.nanoTime();
+        Population population = agentClass == null ? Population.of(cmdps) : Population.of(cmdps, agentClass);
+        metrics.recordTime(Metrics.PLAN_MODEL, System.nanoTime() - start);
+        return population;
+    }
 
-            for (int sNext = 0; sNext < cmdp.getNumStates(); sNext++) {
-                RealVector lhs = new ArrayRealVector(numVars);
+    /**
+     * Solve an LP and record its size and effort, the time includes the crash basis
+     */
+    private LPResult solveLP(LinearProgram lp, int[] basis) {
+        long start = System.nanoTime();
+        LPResult result = lpSolver.solve(lp, basis);
+        metrics.recordTime(Metrics.PLAN_SOLVE, System.nanoTime() - start);
+        metrics.record(Metrics.LP_ROWS, lp.getNumRows());
+        metrics.record(Metrics.LP_COLUMNS, lp.getNumColumns());
+        metrics.record(Metrics.LP_NONZEROS, lp.getNumNonZeros());
+        metrics.record(Metrics.LP_ITERATIONS, result.getIterations());
+        return result;
+    }
 
-                for (int aPrime = 0; aPrime < cmdp.getNumActions(); aPrime++) {
-                    lhs.setEntry(varIDs[i][sNext][aPrime], 1.0);
-                }
+    private Solution extractSolution(Population population, LPResult result) {
+        long start = System.nanoTime();
+        Solution solution = buildSolution(population, result);
+        metrics.recordTime(Metrics.PLAN_POLICY, System.nanoTime() - start);
+        return solution;
+    }
 
-                for (int s = 0; s < cmdp.getNumStates(); s++) {
-                    for (int a = 0; a < cmdp.getNumActions(); a++) {
-                        lhs.addToEntry(varIDs[i][s][a], -1.0 * (cmdp.getDiscountFactor() * cmdp.getTransitionProbability(s, a, sNext)));
-                    }
-                }
+    /**
+     * Solve the constrained problem for a sequence of budgets. The LP is built
+     * once, only the budget changes between solves and each solve starts from
+     * the optimal basis of the previous budget.
+     * @param cmdps agents
+     * @param budgets budgets shared by all agents, in the order they are solved
+     * @return solution for each budget
+     */
+    public Solution[] solveBudgetSweep(CMDP[] cmdps, double[] budgets) {
+        Population population = buildPopulation(cmdps, null);
+        Solution[] solutions = new Solution[budgets.length];
+        if (budgets.length == 0) {
+            return solutions;
+        }
 
-                double rhs = cmdp.getInitialState() == sNext ? 1.0 : 0.0;
-                LinearConstraint constr = new LinearConstraint(lhs, Relationship.EQ, rhs);
-                constraints.add(constr);
+        long start = System.nanoTime();
+        lpBuilder.build(population, new ResourceLimits(budgets[0]), lp);
+        metrics.recordTime(Metrics.PLAN_CONSTRAINTS, System.nanoTime() - start);
+        int costRow = numFlowRows(population);
+        int[] basis = crashBasis(population, lp.getNumRows());
+
+        for (int k = 0; k < budgets.length; k++) {
+            lp.setRhs(costRow, budgets[k]);
+            LPResult result = solveLP(lp, basis);
+            if (result.getBasis() != null) {
+                basis = result.getBasis();
             }
+            solutions[k] = extractSolution(population, result);
         }
 
-        // add cost constraint
-        RealVector costLHS = new ArrayRealVector(numVars);
-        for (int i = 0; i < nAgents; i++) {
-            CMDP cmdp = cmdps[i];
+        return solutions;
+    }
 
-            for (int s = 0; s < cmdp.getNumStates(); s++) {
-                for (int a = 0; a < cmdp.getNumActions(); a++) {
-                    costLHS.setEntry(varIDs[i][s][a], cmdp.getCost(s, a));
-                }
-            }
+    /**
+     * Variable of (t,s,a) in the occupancy-measure LP is varOffset[t] + s*nActions + a
+     */
+    private static int[] variableOffsets(Population population) {
+        int[] varOffset = new int[population.getNumTypes()];
+        int numVars = 0;
+        for (int t = 0; t < population.getNumTypes(); t++) {
+            varOffset[t] = numVars;
+            numVars += population.getType(t).getNumStates() * population.getType(t).getNumActions();
         }
-        LinearConstraint costConstraint = new LinearConstraint(costLHS, Relationship.LEQ, costLimit);
-        constraints.add(costConstraint);
+        return varOffset;
+    }
 
-        // add non-negative constraints
-        for (int i = 0; i < nAgents; i++) {
-            CMDP cmdp = cmdps[i];
+    private static int numFlowRows(Population population) {
+        int nRows = 0;
+        for (int t = 0; t < population.getNumTypes(); t++) {
+            nRows += population.getType(t).getNumStates();
+        }
+        return nRows;
+    }
 
-            for (int s = 0; s < cmdp.getNumStates(); s++) {
-                for (int a = 0; a < cmdp.getNumActions(); a++) {
-                    RealVector lhs = new ArrayRealVector(numVars);
-                    lhs.setEntry(varIDs[i][s][a], 1.0);
-                    LinearConstraint constr = new LinearConstraint(lhs, Relationship.GEQ, 0.0);
-                    constraints.add(constr);
-                }
+    /**
+     * Basis of the unconstrained optimal policies of all types with the slacks
+     * of the limit rows basic. It is optimal if no limit is binding and dual
+     * feasible otherwise, so the dual simplex only has to enforce the limits.
+     */
+    private int[] crashBasis(Population population, int numRows) {
+        int[] varOffset = variableOffsets(population);
+        int[] rowOffset = new int[population.getNumTypes()];
+        int nRows = 0;
+        for (int t = 0; t < population.getNumTypes(); t++) {
+            rowOffset[t] = nRows;
+            nRows += population.getType(t).getNumStates();
+        }
+
+        int[] basis = new int[numRows];
+        IntStream.range(0, population.getNumTypes()).parallel().forEach(t -> crashBlock(population.getType(t), rowOffset[t], varOffset[t], basis));
+        for (int row = nRows; row < numRows; row++) {
+            basis[row] = -(row + 1);
+        }
+
+        return basis;
+    }
+
+    /**
+     * Put the columns of the unconstrained optimal policy of a type in the basis
+     * @param flowRow flow conservation row of state 0 of the type
+     * @param firstColumn column of (0,0) of the type
+     * @param basis basic column of each row
+     */
+    void crashBlock(CMDP cmdp, int flowRow, int firstColumn, int[] basis) {
+        int[] policy = policyIteration.solve(cmdp, cmdp.getDiscountFactor(), ValueIteration.rewardVector(cmdp), null).getPolicy();
+
+        for (int s = 0; s < cmdp.getNumStates(); s++) {
+            basis[flowRow + s] = firstColumn + s * cmdp.getNumActions() + policy[s];
+        }
+    }
+
+    /**
+     * Policies and expectations of all agents from the optimal occupancy
+     * measures, the columns of the types are in type order
+     */
+    static Solution buildSolution(Population population, LPResult solution) {
+        Solution typeSolution = buildTypeSolution(population, solution);
+        int nResources = typeSolution.getNumResources();
+
+        // agents of the same type share policy and expectations
+        int nAgents = population.getNumAgents();
+        Policy[] policies = new Policy[nAgents];
+        double[] expectedRewardAgent = new double[nAgents];
+        double[][] consumptionAgent = new double[nResources][nAgents];
+        for (int i = 0; i < nAgents; i++) {
+            int t = population.getAgentType(i);
+            policies[i] = typeSolution.getCompactPolicy(t);
+            expectedRewardAgent[i] = typeSolution.getExpectedReward(t) / population.getMultiplicity(t);
+            for (int k = 0; k < nResources; k++) {
+                consumptionAgent[k][i] = typeSolution.getExpectedConsumption(k, t) / population.getMultiplicity(t);
             }
         }
 
-        // solve the problem using simplex
-        SimplexSolver solver = new SimplexSolver();
-        LinearConstraintSet lcs = new LinearConstraintSet(constraints);
-        PointValuePair solution = solver.optimize(objectiveFunction, lcs, GoalType.MAXIMIZE);
+        return new Solution(policies, typeSolution.getExpectedReward(), typeSolution.getExpectedCost(), expectedRewardAgent, consumptionAgent);
+    }
+
+    /**
+     * Policy and total expectations of every type from the optimal occupancy measures
+     */
+    private static Solution buildTypeSolution(Population population, LPResult solution) {
+        int nTypes = population.getNumTypes();
+        int[] varOffset = variableOffsets(population);
+        int numVars = solution.getPoint().length;
 
-        // compute expected reward and cost
+        // compute expected reward and cost of each type
         double expectedReward = 0.0;
         double expectedCost = 0.0;
-        double[] expectedRewardAgent = new double[nAgents];
-        double[] expectedCostAgent = new double[nAgents];
-        for (int i = 0; i < nAgents; i++) {
-            CMDP cmdp = cmdps[i];
+        double[] expectedRewardType = new double[nTypes];
+        double[] expectedCostType = new double[nTypes];
+        for (int t = 0; t < nTypes; t++) {
+            CMDP cmdp = population.getType(t);
 
             for (int s = 0; s < cmdp.getNumStates(); s++) {
                 for (int a = 0; a < cmdp.getNumActions(); a++) {
-                    int varID = varIDs[i][s][a];
+                    int varID = varOffset[t] + s * cmdp.getNumActions() + a;
                     double flow = solution.getPoint()[varID];
                     expectedReward += flow * cmdp.getReward(s, a);
                     expectedCost += flow * cmdp.getCost(s, a);
-                    expectedRewardAgent[i] += flow * cmdp.getReward(s, a);
-                    expectedCostAgent[i] += flow * cmdp.getCost(s, a);
+                    expectedRewardType[t] += flow * cmdp.getReward(s, a);
+                    expectedCostType[t] += flow * cmdp.getCost(s, a);
+                }
+            }
+        }
+
+        // consumption of every resource of the models, resource 0 is the cost above
+        int nResources = 1;
+        for (int t = 0; t < nTypes; t++) {
+            nResources = Math.max(nResources, population.getType(t).getNumResources());
+        }
+        double[][] consumptionType = new double[nResources][nTypes];
+        for (int t = 0; t < nTypes; t++) {
+            consumptionType[0][t] = expectedCostType[t];
+            CMDP cmdp = population.getType(t);
+            int numPairs = cmdp.getNumStates() * cmdp.getNumActions();
+            for (int k = 1; k < cmdp.getNumResources(); k++) {
+                double[] costs = cmdp.getCosts(k);
+                for (int sa = 0; sa < numPairs; sa++) {
+                    consumptionType[k][t] += solution.getPoint()[varOffset[t] + sa] * costs[sa];
                 }
             }
         }
@@ -144,79 +347,117 @@ public class PlanningAlgorithm {
             }
         }
 
-        // construct policy
-        double[][][] policy = new double[nAgents][][];
-        for (int i = 0; i < nAgents; i++) {
-            CMDP cmdp = cmdps[i];
+        // construct policy, states without occupancy take their cheapest action
+        Policy[] policy = new Policy[nTypes];
+        for (int t = 0; t < nTypes; t++) {
+            CMDP cmdp = population.getType(t);
+            policy[t] = Policy.fromWeights(solutionValues, varOffset[t], cmdp.getNumStates(), cmdp.getNumActions(), cheapestActions(cmdp));
+        }
 
-            policy[i] = new double[cmdp.getNumStates()][cmdp.getNumActions()];
+        return new Solution(policy, expectedReward, expectedCost, expectedRewardType, consumptionType);
+    }
 
-            for (int s = 0; s < cmdp.getNumStates(); s++) {
-                for (int a = 0; a < cmdp.getNumActions(); a++) {
-                    double divisor = 0.0;
-                    for (int aPrime = 0; aPrime < cmdp.getNumActions(); aPrime++) {
-                        int varID = varIDs[i][s][aPrime];
-                        divisor += solutionValues[varID];
-                    }
-
-                    int varID = varIDs[i][s][a];
-                    policy[i][s][a] = solutionValues[varID] / divisor;
+    /**
+     * Action of each state with the lowest cost, ties broken by the higher reward
+     */
+    private static int[] cheapestActions(CMDP cmdp) {
+        int nActions = cmdp.getNumActions();
+        double[] rewards = cmdp.getRewards();
+        double[] costs = cmdp.getCosts();
+
+        int[] actions = new int[cmdp.getNumStates()];
+        for (int s = 0; s < actions.length; s++) {
+            int best = s * nActions;
+            for (int sa = best + 1; sa < (s + 1) * nActions; sa++) {
+                if (costs[sa] < costs[best] || (costs[sa] == costs[best] && rewards[sa] > rewards[best])) {
+                    best = sa;
                 }
             }
+            actions[s] = best - s * nActions;
         }
+        return actions;
+    }
 
-        ArrayList<double[][]> policies = new ArrayList<double[][]>();
-        for (int i = 0; i < nAgents; i++) {
-            policies.add(policy[i]);
-        }
-
-        return new Solution(policies, expectedReward, expectedCost, expectedRewardAgent, expectedCostAgent);
+    /**
+     * Solve the constrained problem by dualizing the cost constraint, so that
+     * each agent becomes an independent MDP that is solved in parallel
+     * @param cmdps agents
+     * @param costLimit budget shared by all agents
+     * @return solution
+     */
+    public Solution solveDecomposed(CMDP[] cmdps, double costLimit) {
+        return new LagrangianSolver(cmdps, costLimit).solve();
     }
 
+    /**
+     * Solve each agent without constraints using value iteration
+     * @param cmdps agents
+     * @param discountFactor discount factor used instead of the one of the models
+     * @return solution with deterministic greedy policies
+     */
     public Solution solveVI(CMDP[] cmdps, double discountFactor) {
-        CMDP cmdp = cmdps[0];
+        return solveEachAgent(cmdps, discountFactor, (cmdp, gamma, rewards) -> valueIteration.solve(cmdp, gamma, rewards, null));
+    }
 
-        double[] V = new double[cmdp.getNumStates()];
+    /**
+     * Solve each agent without constraints using policy iteration
+     * @param cmdps agents
+     * @return solution with deterministic optimal policies
+     */
+    public Solution solvePI(CMDP[] cmdps) {
+        return solveEachAgent(cmdps, Double.NaN, (cmdp, gamma, rewards) -> policyIteration.solve(cmdp, gamma, rewards, null));
+    }
 
-        // compute an optimal value function for the cmdp object
+    /**
+     * Solve each agent without constraints using modified policy iteration
+     * @param cmdps agents
+     * @param evaluationSweeps number of Gauss-Seidel evaluation sweeps per improvement step
+     * @return solution with deterministic epsilon-optimal policies
+     */
+    public Solution solveModifiedPI(CMDP[] cmdps, int evaluationSweeps) {
+        return solveEachAgent(cmdps, Double.NaN, (cmdp, gamma, rewards) -> policyIteration.solveModified(cmdp, gamma, rewards, evaluationSweeps, null));
+    }
 
-        double delta = 0;
-        double thresh = .05;
-        int[] best_actions = new int[cmdp.getNumStates()];
-        do {
-            delta = 0;
-            for (int s = 0; s < cmdp.getNumStates(); s++) {
-                double v_tmp = 0;
-                double v_prev = V[s];
-                for (int a = 0; a < cmdp.getNumActions(); a++) {
-                    double r = cmdp.getReward(s, a);
-                    int finalA = a;
-                    int finalS = s;
-                    v_tmp = r + discountFactor * IntStream.range(0, cmdp.getNumStates()).mapToDouble(j -> cmdp.getTransitionProbability(finalS, finalA, j) * V[j]).sum();
-                    if (v_tmp > V[s]) {
-                        V[s] = v_tmp;
-                        best_actions[s] = a;
-                    }
-                }
-                delta = Math.max(delta, Math.abs(v_prev - V[s]));
-                System.out.println(delta);
-                System.out.println(Arrays.toString(V));
-            }
-        } while (delta > thresh && delta != 0);
+    /**
+     * Solve the unconstrained problem of every agent in parallel
+     * @param discountFactor discount factor, NaN to use the one of each model
+     */
+    private Solution solveEachAgent(CMDP[] cmdps, double discountFactor, AgentSolver solver) {
+        int nAgents = cmdps.length;
+        ValueIteration.Result[] results = new ValueIteration.Result[nAgents];
+        double[] expectedRewardAgent = new double[nAgents];
+        double[] expectedCostAgent = new double[nAgents];
 
-        double[][] policy = new double[cmdp.getNumStates()][cmdp.getNumActions()];
+        long start = System.nanoTime();
+        IntStream.range(0, nAgents).parallel().forEach(i -> {
+            CMDP cmdp = cmdps[i];
+            double gamma = Double.isNaN(discountFactor) ? cmdp.getDiscountFactor() : discountFactor;
+            results[i] = solver.solve(cmdp, gamma, ValueIteration.rewardVector(cmdp));
+            metrics.record(Metrics.VI_ITERATIONS, results[i].getIterations());
+            metrics.record(Metrics.VI_RESIDUAL, results[i].getResidual());
+
+            double[] costValues = ValueIteration.evaluate(cmdp, gamma, ValueIteration.costVector(cmdp), results[i].getPolicy(), EVALUATION_TOL);
+            expectedRewardAgent[i] = results[i].getValues()[cmdp.getInitialState()];
+            expectedCostAgent[i] = costValues[cmdp.getInitialState()];
+        });
+        metrics.recordTime(Metrics.PLAN_SOLVE, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        double expectedReward = 0.0;
+        double expectedCost = 0.0;
+        Policy[] policies = new Policy[nAgents];
+        for (int i = 0; i < nAgents; i++) {
+            policies[i] = Policy.deterministic(results[i].getPolicy(), cmdps[i].getNumActions());
 
-        // TODO fill the policy array with probabilities
-        for (int s = 0; s < cmdp.getNumStates(); s++) {
-            int a = best_actions[s];
-            policy[s][a] = 1;
+            expectedReward += expectedRewardAgent[i];
+            expectedCost += expectedCostAgent[i];
         }
+        metrics.recordTime(Metrics.PLAN_POLICY, System.nanoTime() - start);
 
-        ArrayList<double[][]> policies = new ArrayList<double[][]>();
-        policies.add(policy);
-
-        double expectedReward = V[cmdp.getInitialState()];
+        return new Solution(policies, expectedReward, expectedCost, expectedRewardAgent, new double[][]{expectedCostAgent});
+    }
 
-        return new Solution(policies, expectedReward, 0.0, new double[]{expectedReward}, new double[1]);
+    private interface AgentSolver {
+        public ValueIteration.Result solve(CMDP cmdp, double discountFactor, double[] rewards);
     }
 }
@@ -0,0 +1,369 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Cache of solved occupancy-measure LPs for PlanningAlgorithm. An entry is
+ * keyed by a SHA-256 digest of the problem structure (model contents, agent
+ * types, layout of the limit rows and LP backend) and by the budget vector,
+ * the rhs of the limit rows. A lookup with the same structure and budgets
+ * returns the cached solution, otherwise the basis of the entry with the
+ * same structure and the nearest budgets is a warm start, because the LPs
+ * only differ in the rhs and that basis stays dual feasible.
+ * Entries are evicted in least recently used order once there are more than
+ * maxEntries of them or they take more than maxBytes. The LP results can be
+ * saved to disk and loaded by the next run, solutions are rebuilt from them
+ * on the first hit.
+ */
+public class PlanningCache {
+	private final int maxEntries;
+	private final long maxBytes;
+	private final LinkedHashMap<Key,Entry> entries = new LinkedHashMap<Key,Entry>(16, 0.75f, true);
+	private long bytes = 0;
+
+	private long hits = 0;
+	private long nearMisses = 0;
+	private long misses = 0;
+
+	/**
+	 * Create an empty cache
+	 * @param maxEntries maximum number of entries
+	 * @param maxBytes maximum estimated size of the LP results in bytes
+	 */
+	public PlanningCache(int maxEntries, long maxBytes) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Compute the key of a problem
+	 * @param population agent types and their multiplicities
+	 * @param limits limits, agents of a type must share their agent limits and groups
+	 * @param mode solver mode, for example the LP backend
+	 * @return key
+	 */
+	public static Key key(Population population, ResourceLimits limits, String mode) {
+		MessageDigest digest = sha256();
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+		digest.update(mode.getBytes(StandardCharsets.UTF_8));
+		putInt(digest, buffer, population.getNumTypes());
+		for(int t=0; t<population.getNumTypes(); t++) {
+			putModel(digest, buffer, population.getType(t));
+			putInt(digest, buffer, population.getMultiplicity(t));
+		}
+		// the runs of agents of the same type determine the type of every agent
+		putInt(digest, buffer, population.getNumRuns());
+		for(int r=0; r<population.getNumRuns(); r++) {
+			putInt(digest, buffer, population.getRunType(r));
+			putInt(digest, buffer, population.getRunLength(r));
+		}
+
+		// layout of the limit rows is structure, their rhs are the budgets
+		LinearProgram rows = new LinearProgram();
+		List<List<int[]>> typeRows = OccupancyLPBuilder.addLimitRows(rows, population, limits);
+		putInt(digest, buffer, rows.getNumRows());
+		for(List<int[]> list : typeRows) {
+			putInt(digest, buffer, list.size());
+			for(int[] row : list) {
+				putInt(digest, buffer, row[0]);
+				putInt(digest, buffer, row[1]);
+			}
+		}
+		flush(digest, buffer);
+
+		double[] budgets = new double[rows.getNumRows()];
+		for(int r=0; r<budgets.length; r++) {
+			budgets[r] = rows.getRhs(r);
+		}
+		return new Key(digest.digest(), budgets);
+	}
+
+	/**
+	 * Look up a solved problem
+	 * @param key key of the problem
+	 * @param population population the key was computed from, used to rebuild loaded solutions
+	 * @return solution, null if the problem was not solved before
+	 */
+	public synchronized Solution get(Key key, Population population) {
+		Entry entry = entries.get(key);
+		if(entry == null) {
+			return null;
+		}
+
+		hits++;
+		if(entry.solution == null) {
+			entry.solution = PlanningAlgorithm.buildSolution(population, entry.result());
+		}
+		return entry.solution;
+	}
+
+	/**
+	 * Find the basis of the solved problem with the same structure and the
+	 * nearest budgets, measured by the sum of relative budget differences
+	 * @param key key of the problem
+	 * @return basis, null if no problem with the same structure was solved
+	 */
+	public synchronized int[] nearestBasis(Key key) {
+		Key nearest = null;
+		double nearestDistance = Double.POSITIVE_INFINITY;
+		for(Map.Entry<Key,Entry> e : entries.entrySet()) {
+			Key candidate = e.getKey();
+			if(e.getValue().basis == null || !Arrays.equals(candidate.structure, key.structure)) {
+				continue;
+			}
+
+			double distance = 0.0;
+			for(int r=0; r<key.budgets.length; r++) {
+				distance += Math.abs(candidate.budgets[r] - key.budgets[r]) / Math.max(1.0, Math.abs(key.budgets[r]));
+			}
+			if(distance < nearestDistance) {
+				nearestDistance = distance;
+				nearest = candidate;
+			}
+		}
+
+		if(nearest == null) {
+			misses++;
+			return null;
+		}
+		nearMisses++;
+		return entries.get(nearest).basis.clone();
+	}
+
+	/**
+	 * Store a solved problem, evicting least recently used entries if the cache is full
+	 * @param key key of the problem
+	 * @param result optimal LP result
+	 * @param solution solution built from the result
+	 */
+	public synchronized void put(Key key, LPResult result, Solution solution) {
+		Entry entry = new Entry(result);
+		entry.solution = solution;
+		Entry old = entries.put(key, entry);
+		if(old != null) {
+			bytes -= old.bytes();
+		}
+		bytes += entry.bytes();
+		evict();
+	}
+
+	private void evict() {
+		Iterator<Entry> it = entries.values().iterator();
+		while(it.hasNext() && entries.size() > 1 && (entries.size() > maxEntries || bytes > maxBytes)) {
+			bytes -= it.next().bytes();
+			it.remove();
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Get estimated size of the cached LP results
+	 * @return bytes
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Get number of lookups answered with the basis of a nearby budget
+	 * @return near misses
+	 */
+	public synchronized long getNearMisses() {
+		return nearMisses;
+	}
+
+	/**
+	 * Get number of lookups without any entry of the same structure
+	 * @return misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Write all entries, least recently used first
+	 * @param fileName target file, replaced if it exists
+	 */
+	public synchronized void save(String fileName) {
+		try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(Paths.get(fileName)))) {
+			out.writeInt(entries.size());
+			for(Map.Entry<Key,Entry> e : entries.entrySet()) {
+				out.writeObject(e.getKey());
+				out.writeObject(e.getValue());
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Create a cache with the entries of a file written by save
+	 * @param fileName cache file, an empty cache is returned if it does not exist
+	 * @param maxEntries maximum number of entries
+	 * @param maxBytes maximum estimated size of the LP results in bytes
+	 * @return cache
+	 */
+	public static PlanningCache load(String fileName, int maxEntries, long maxBytes) {
+		PlanningCache cache = new PlanningCache(maxEntries, maxBytes);
+		try (ObjectInputStream in = new ObjectInputStream(Files.newInputStream(Paths.get(fileName)))) {
+			int n = in.readInt();
+			for(int k=0; k<n; k++) {
+				Key key = (Key) in.readObject();
+				Entry entry = (Entry) in.readObject();
+				cache.entries.put(key, entry);
+				cache.bytes += entry.bytes();
+			}
+		} catch (NoSuchFileException ex) {
+			return cache;
+		} catch (IOException | ClassNotFoundException ex) {
+			throw new RuntimeException(ex);
+		}
+		cache.evict();
+		return cache;
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private static void putModel(MessageDigest digest, ByteBuffer buffer, CMDP cmdp) {
+		putInt(digest, buffer, cmdp.getNumStates());
+		putInt(digest, buffer, cmdp.getNumActions());
+		putInt(digest, buffer, cmdp.getInitialState());
+		putDouble(digest, buffer, cmdp.getDiscountFactor());
+		putDoubles(digest, buffer, cmdp.getRewards(), cmdp.getRewards().length);
+		putInt(digest, buffer, cmdp.getNumResources());
+		for(int k=0; k<cmdp.getNumResources(); k++) {
+			putDoubles(digest, buffer, cmdp.getCosts(k), cmdp.getCosts(k).length);
+		}
+
+		// successor arrays may be longer than the number of entries in use
+		int nnz = cmdp.getNumTransitions();
+		int[] start = cmdp.getSuccessorStarts();
+		for(int sa=0; sa<=cmdp.getNumStates()*cmdp.getNumActions(); sa++) {
+			putInt(digest, buffer, start[sa]);
+		}
+		int[] successor = cmdp.getSuccessorStates();
+		for(int k=0; k<nnz; k++) {
+			putInt(digest, buffer, successor[k]);
+		}
+		putDoubles(digest, buffer, cmdp.getSuccessorProbabilities(), nnz);
+	}
+
+	private static void putInt(MessageDigest digest, ByteBuffer buffer, int x) {
+		if(buffer.remaining() < 4) {
+			flush(digest, buffer);
+		}
+		buffer.putInt(x);
+	}
+
+	private static void putDouble(MessageDigest digest, ByteBuffer buffer, double x) {
+		if(buffer.remaining() < 8) {
+			flush(digest, buffer);
+		}
+		buffer.putLong(Double.doubleToLongBits(x));
+	}
+
+	private static void putDoubles(MessageDigest digest, ByteBuffer buffer, double[] x, int count) {
+		putInt(digest, buffer, count);
+		for(int k=0; k<count; k++) {
+			putDouble(digest, buffer, x[k]);
+		}
+	}
+
+	private static void flush(MessageDigest digest, ByteBuffer buffer) {
+		buffer.flip();
+		digest.update(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * Structure digest and budget vector of a problem
+	 */
+	public static final class Key implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final byte[] structure;
+		private final double[] budgets;
+
+		private Key(byte[] structure, double[] budgets) {
+			this.structure = structure;
+			this.budgets = budgets;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return Arrays.equals(structure, other.structure) && Arrays.equals(budgets, other.budgets);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31*Arrays.hashCode(structure) + Arrays.hashCode(budgets);
+		}
+	}
+
+	/**
+	 * LP result of a problem, the solution is rebuilt after loading
+	 */
+	private static final class Entry implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final double[] point;
+		private final double value;
+		private final double[] duals;
+		private final int[] basis;
+		private final int iterations;
+		private transient Solution solution;
+
+		public Entry(LPResult result) {
+			this.point = result.getPoint();
+			this.value = result.getValue();
+			this.duals = result.getDuals();
+			this.basis = result.getBasis();
+			this.iterations = result.getIterations();
+		}
+
+		public LPResult result() {
+			return new LPResult(point, value, duals, basis, iterations);
+		}
+
+		public long bytes() {
+			return 8L*point.length + (duals == null ? 0 : 8L*duals.length) + (basis == null ? 0 : 4L*basis.length);
+		}
+	}
+}
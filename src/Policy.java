@@ -0,0 +1,209 @@
+import java.util.Arrays;
+
+
+/**
+ * Stationary policy stored as one action per state, with the action
+ * distributions of the few randomized states kept apart. Optimal policies of
+ * CMDPs randomize in at most as many states as there are constraints, so a
+ * policy takes O(nStates) memory instead of O(nStates*nActions) and looking
+ * up the action of a deterministic state is a single array access.
+ */
+public class Policy {
+	private static final int UNDEFINED = Integer.MIN_VALUE;
+
+	private final int nActions;
+
+	// action of a deterministic state, -(r+1) for randomized state r, UNDEFINED for states without an action
+	private final int[] action;
+	private final int[][] randomizedActions;
+	private final double[][] randomizedProbabilities;
+	private final DiscreteSampler[] samplers;
+
+	private Policy(int nActions, int[] action, int[][] randomizedActions, double[][] randomizedProbabilities) {
+		this.nActions = nActions;
+		this.action = action;
+		this.randomizedActions = randomizedActions;
+		this.randomizedProbabilities = randomizedProbabilities;
+		this.samplers = new DiscreteSampler[randomizedActions.length];
+		for(int r=0; r<samplers.length; r++) {
+			samplers[r] = DiscreteSampler.of(randomizedProbabilities[r]);
+		}
+	}
+
+	/**
+	 * Create a deterministic policy
+	 * @param actions action of each state, the array is copied
+	 * @param nActions number of actions
+	 * @return policy
+	 */
+	public static Policy deterministic(int[] actions, int nActions) {
+		return new Policy(nActions, actions.clone(), new int[0][], new double[0][]);
+	}
+
+	/**
+	 * Create a policy from dense action probabilities
+	 * @param policy policy[s][a] is the probability of a in s, rows without positive entries leave s without an action
+	 * @return policy
+	 */
+	public static Policy of(double[][] policy) {
+		int nStates = policy.length;
+		int nActions = nStates == 0 ? 0 : policy[0].length;
+		double[] weights = new double[nStates*nActions];
+		for(int s=0; s<nStates; s++) {
+			System.arraycopy(policy[s], 0, weights, s*nActions, nActions);
+		}
+		return fromWeights(weights, 0, nStates, nActions, null);
+	}
+
+	/**
+	 * Create a policy that takes a in s with probability proportional to a
+	 * weight, such as the occupancy measure of (s,a)
+	 * @param weights weight of (s,a) at offset+s*nActions+a
+	 * @param offset index of the weight of (0,0)
+	 * @param nStates number of states
+	 * @param nActions number of actions
+	 * @param fallback action of states without positive weights, null to leave them without an action
+	 * @return policy
+	 */
+	public static Policy fromWeights(double[] weights, int offset, int nStates, int nActions, int[] fallback) {
+		int[] action = new int[nStates];
+		int[][] randomizedActions = new int[4][];
+		double[][] randomizedProbabilities = new double[4][];
+		int nRandomized = 0;
+
+		for(int s=0; s<nStates; s++) {
+			int first = offset + s*nActions;
+			double total = 0.0;
+			int support = 0;
+			int last = -1;
+			for(int a=0; a<nActions; a++) {
+				double w = weights[first+a];
+				total += w;
+				if(w > 0.0) {
+					support++;
+					last = a;
+				}
+			}
+
+			if(!(total > 0.0)) {
+				action[s] = fallback == null ? UNDEFINED : fallback[s];
+			}
+			else if(support == 1) {
+				action[s] = last;
+			}
+			else {
+				int[] actions = new int[support];
+				double[] probabilities = new double[support];
+				int k = 0;
+				for(int a=0; a<nActions; a++) {
+					if(weights[first+a] > 0.0) {
+						actions[k] = a;
+						probabilities[k] = weights[first+a] / total;
+						k++;
+					}
+				}
+
+				if(nRandomized == randomizedActions.length) {
+					randomizedActions = Arrays.copyOf(randomizedActions, 2*nRandomized);
+					randomizedProbabilities = Arrays.copyOf(randomizedProbabilities, 2*nRandomized);
+				}
+				randomizedActions[nRandomized] = actions;
+				randomizedProbabilities[nRandomized] = probabilities;
+				action[s] = -(nRandomized+1);
+				nRandomized++;
+			}
+		}
+
+		return new Policy(nActions, action, Arrays.copyOf(randomizedActions, nRandomized), Arrays.copyOf(randomizedProbabilities, nRandomized));
+	}
+
+	public int getNumStates() {
+		return action.length;
+	}
+
+	public int getNumActions() {
+		return nActions;
+	}
+
+	/**
+	 * Get number of states in which the policy randomizes
+	 * @return number of randomized states
+	 */
+	public int getNumRandomizedStates() {
+		return randomizedActions.length;
+	}
+
+	/**
+	 * Get the action of a deterministic state
+	 * @param s state
+	 * @return action, -1 if the policy randomizes in s or has no action for s
+	 */
+	public int getAction(int s) {
+		return action[s] >= 0 ? action[s] : -1;
+	}
+
+	/**
+	 * Get probability of executing action a in state s
+	 * @param s state
+	 * @param a action
+	 * @return probability, NaN if the policy has no action for s
+	 */
+	public double getProbability(int s, int a) {
+		int x = action[s];
+		if(x >= 0) {
+			return x == a ? 1.0 : 0.0;
+		}
+		if(x == UNDEFINED) {
+			return Double.NaN;
+		}
+
+		int[] actions = randomizedActions[-x-1];
+		for(int k=0; k<actions.length; k++) {
+			if(actions[k] == a) {
+				return randomizedProbabilities[-x-1][k];
+			}
+		}
+		return 0.0;
+	}
+
+	/**
+	 * Draw an action
+	 * @param s state
+	 * @param u uniform number in [0,1), not used in deterministic states
+	 * @return action
+	 */
+	public int sampleAction(int s, double u) {
+		int x = action[s];
+		if(x >= 0) {
+			return x;
+		}
+		if(x == UNDEFINED) {
+			throw new IllegalStateException("Policy has no action for state " + s);
+		}
+		return randomizedActions[-x-1][samplers[-x-1].sample(u)];
+	}
+
+	/**
+	 * Get the policy as dense action probabilities
+	 * @return policy[s][a] is the probability of a in s, NaN rows for states without an action
+	 */
+	public double[][] toArray() {
+		double[][] policy = new double[action.length][nActions];
+		for(int s=0; s<action.length; s++) {
+			int x = action[s];
+			if(x >= 0) {
+				policy[s][x] = 1.0;
+			}
+			else if(x == UNDEFINED) {
+				Arrays.fill(policy[s], Double.NaN);
+			}
+			else {
+				int[] actions = randomizedActions[-x-1];
+				for(int k=0; k<actions.length; k++) {
+					policy[s][actions[k]] = randomizedProbabilities[-x-1][k];
+				}
+			}
+		}
+		return policy;
+	}
+}
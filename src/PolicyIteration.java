@@ -0,0 +1,170 @@
+
+/**
+ * Policy iteration and modified policy iteration on the sparse transition
+ * model. Policies are evaluated with in-place Gauss-Seidel sweeps over the
+ * successor lists, starting from the values of the previous policy.
+ */
+public class PolicyIteration {
+	private double tolerance = 1e-10;
+	private double epsilon = 1e-6;
+	private int maxIterations = 100000;
+
+	/**
+	 * Set evaluation accuracy of policy iteration
+	 * @param tolerance largest value change of the final evaluation sweep
+	 */
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Set suboptimality of the policy returned by modified policy iteration
+	 * @param epsilon maximum loss in value of the returned policy
+	 */
+	public void setEpsilon(double epsilon) {
+		this.epsilon = epsilon;
+	}
+
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * Run policy iteration until the policy is stable
+	 * @param mdp model providing transitions
+	 * @param discountFactor discount factor
+	 * @param rewards reward of (s,a) at s*nActions+a
+	 * @param initialPolicy starting policy, or null to start from action 0
+	 * @return values and policy, iterations counts improvement steps
+	 */
+	public ValueIteration.Result solve(MDP mdp, double discountFactor, double[] rewards, int[] initialPolicy) {
+		int nStates = mdp.getNumStates();
+		int[] policy = initialPolicy == null ? new int[nStates] : initialPolicy.clone();
+		double[] V = new double[nStates];
+
+		int iteration = 0;
+		boolean changed = true;
+		while(changed && iteration < maxIterations) {
+			double delta;
+			do {
+				delta = evaluationSweep(mdp, discountFactor, rewards, policy, V);
+			} while(delta > tolerance);
+
+			changed = improve(mdp, discountFactor, rewards, policy, V) > 0;
+			iteration++;
+		}
+
+		return new ValueIteration.Result(V, policy, iteration, 0.0);
+	}
+
+	/**
+	 * Run modified policy iteration, which evaluates each greedy policy with a
+	 * fixed number of sweeps
+	 * @param mdp model providing transitions
+	 * @param discountFactor discount factor
+	 * @param rewards reward of (s,a) at s*nActions+a
+	 * @param evaluationSweeps number of evaluation sweeps per improvement
+	 * @param initialPolicy starting policy, or null to start from action 0
+	 * @return values and epsilon-optimal policy
+	 */
+	public ValueIteration.Result solveModified(MDP mdp, double discountFactor, double[] rewards, int evaluationSweeps, int[] initialPolicy) {
+		int nStates = mdp.getNumStates();
+		int[] policy = initialPolicy == null ? new int[nStates] : initialPolicy.clone();
+		double[] V = new double[nStates];
+		double threshold = epsilon * (1.0 - discountFactor) / (2.0 * discountFactor);
+
+		int iteration = 0;
+		double residual = Double.POSITIVE_INFINITY;
+		while(iteration < maxIterations) {
+			residual = greedySweep(mdp, discountFactor, rewards, policy, V);
+			iteration++;
+			if(residual <= threshold) {
+				break;
+			}
+
+			for(int k=0; k<evaluationSweeps; k++) {
+				evaluationSweep(mdp, discountFactor, rewards, policy, V);
+			}
+		}
+
+		return new ValueIteration.Result(V, policy, iteration, residual);
+	}
+
+	/**
+	 * One Gauss-Seidel sweep of the Bellman equation of a fixed policy
+	 * @return largest value change
+	 */
+	private double evaluationSweep(MDP mdp, double discountFactor, double[] rewards, int[] policy, double[] V) {
+		int nActions = mdp.getNumActions();
+		double delta = 0.0;
+
+		for(int s=0; s<mdp.getNumStates(); s++) {
+			double v = qValue(mdp, discountFactor, rewards, nActions, s, policy[s], V);
+			delta = Math.max(delta, Math.abs(v - V[s]));
+			V[s] = v;
+		}
+
+		return delta;
+	}
+
+	/**
+	 * Make the policy greedy with respect to V, keeping actions that are optimal within tolerance
+	 * @return number of states that changed action
+	 */
+	private int improve(MDP mdp, double discountFactor, double[] rewards, int[] policy, double[] V) {
+		int nActions = mdp.getNumActions();
+		int changed = 0;
+
+		for(int s=0; s<mdp.getNumStates(); s++) {
+			double bestQ = qValue(mdp, discountFactor, rewards, nActions, s, policy[s], V);
+			for(int a=0; a<nActions; a++) {
+				double q = qValue(mdp, discountFactor, rewards, nActions, s, a, V);
+				if(q > bestQ + tolerance * (1.0 + Math.abs(bestQ))) {
+					bestQ = q;
+					policy[s] = a;
+					changed++;
+				}
+			}
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Gauss-Seidel Bellman optimality sweep that also updates the greedy policy
+	 * @return largest value change
+	 */
+	private double greedySweep(MDP mdp, double discountFactor, double[] rewards, int[] policy, double[] V) {
+		int nActions = mdp.getNumActions();
+		double delta = 0.0;
+
+		for(int s=0; s<mdp.getNumStates(); s++) {
+			double bestQ = qValue(mdp, discountFactor, rewards, nActions, s, policy[s], V);
+			for(int a=0; a<nActions; a++) {
+				double q = qValue(mdp, discountFactor, rewards, nActions, s, a, V);
+				if(q > bestQ) {
+					bestQ = q;
+					policy[s] = a;
+				}
+			}
+
+			delta = Math.max(delta, Math.abs(bestQ - V[s]));
+			V[s] = bestQ;
+		}
+
+		return delta;
+	}
+
+	private static double qValue(MDP mdp, double discountFactor, double[] rewards, int nActions, int s, int a, double[] V) {
+		int[] start = mdp.getSuccessorStarts();
+		int[] successor = mdp.getSuccessorStates();
+		double[] probability = mdp.getSuccessorProbabilities();
+
+		int sa = s*nActions+a;
+		double future = 0.0;
+		for(int k=start[sa]; k<start[sa+1]; k++) {
+			future += probability[k] * V[successor[k]];
+		}
+		return rewards[sa] + discountFactor * future;
+	}
+}
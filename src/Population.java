@@ -0,0 +1,266 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Set of agents grouped into types of structurally identical CMDPs. Agents
+ * of the same type are planned once and share the resulting policy.
+ * Consecutive agents of the same type are stored as one run, so a population
+ * built type by type takes memory in the number of types, not of agents.
+ */
+public class Population {
+	private final List<CMDP> types = new ArrayList<CMDP>();
+	private final List<Integer> multiplicities = new ArrayList<Integer>();
+	// agents runEnd[r-1]..runEnd[r]-1 have type runType[r]
+	private int[] runType = new int[16];
+	private int[] runEnd = new int[16];
+	private int nRuns = 0;
+	private int nAgents = 0;
+
+	/**
+	 * Add agents that all follow the given model
+	 * @param model CMDP of the agents
+	 * @param multiplicity number of agents
+	 * @return type id
+	 */
+	public int add(CMDP model, int multiplicity) {
+		assert multiplicity > 0;
+		types.add(model);
+		multiplicities.add(multiplicity);
+
+		int type = types.size()-1;
+		addAgents(type, multiplicity);
+		return type;
+	}
+
+	/**
+	 * Group agents with identical transitions, rewards, costs, initial state and discount
+	 * @param cmdps agents
+	 * @return population in which agent i is cmdps[i]
+	 */
+	public static Population of(CMDP[] cmdps) {
+		return of(cmdps, null);
+	}
+
+	/**
+	 * Group agents with identical models and classes. Agents with different
+	 * classes, for example different budgets, are never grouped together.
+	 * @param cmdps agents
+	 * @param agentClass class of each agent, null if all agents have the same class
+	 * @return population in which agent i is cmdps[i]
+	 */
+	public static Population of(CMDP[] cmdps, int[] agentClass) {
+		Population population = new Population();
+		Map<CMDP,Integer> seen = new IdentityHashMap<CMDP,Integer>();
+		Map<Long,List<Integer>> buckets = new HashMap<Long,List<Integer>>();
+		List<Integer> typeClass = new ArrayList<Integer>();
+
+		for(int i=0; i<cmdps.length; i++) {
+			CMDP cmdp = cmdps[i];
+			int cls = agentClass == null ? 0 : agentClass[i];
+			Integer type = seen.get(cmdp);
+
+			if(type == null || typeClass.get(type) != cls) {
+				type = null;
+				List<Integer> bucket = buckets.computeIfAbsent(31*fingerprint(cmdp) + cls, k -> new ArrayList<Integer>());
+				for(int candidate : bucket) {
+					if(typeClass.get(candidate) == cls && sameModel(population.types.get(candidate), cmdp)) {
+						type = candidate;
+						break;
+					}
+				}
+
+				if(type == null) {
+					population.types.add(cmdp);
+					population.multiplicities.add(0);
+					type = population.types.size()-1;
+					typeClass.add(cls);
+					bucket.add(type);
+				}
+				seen.put(cmdp, type);
+			}
+
+			population.multiplicities.set(type, population.multiplicities.get(type)+1);
+			population.addAgents(type, 1);
+		}
+
+		return population;
+	}
+
+	/**
+	 * Add a type without agents
+	 * @param model CMDP of the type
+	 * @return type id
+	 */
+	public int addType(CMDP model) {
+		types.add(model);
+		multiplicities.add(0);
+		return types.size()-1;
+	}
+
+	/**
+	 * Add an agent of an existing type
+	 * @param type type id
+	 */
+	public void addAgentOfType(int type) {
+		multiplicities.set(type, multiplicities.get(type)+1);
+		addAgents(type, 1);
+	}
+
+	private void addAgents(int type, int count) {
+		if(nRuns == 0 || runType[nRuns-1] != type) {
+			if(nRuns == runType.length) {
+				runType = Arrays.copyOf(runType, 2*nRuns);
+				runEnd = Arrays.copyOf(runEnd, 2*nRuns);
+			}
+			runType[nRuns] = type;
+			runEnd[nRuns] = nAgents;
+			nRuns++;
+		}
+		nAgents += count;
+		runEnd[nRuns-1] = nAgents;
+	}
+
+	public int getNumTypes() {
+		return types.size();
+	}
+
+	public CMDP getType(int type) {
+		return types.get(type);
+	}
+
+	public int getMultiplicity(int type) {
+		return multiplicities.get(type);
+	}
+
+	public int getNumAgents() {
+		return nAgents;
+	}
+
+	/**
+	 * Get number of runs of consecutive agents of the same type, adjacent runs have different types
+	 * @return runs
+	 */
+	public int getNumRuns() {
+		return nRuns;
+	}
+
+	/**
+	 * Get type of the agents of a run
+	 * @param r run id
+	 * @return type id
+	 */
+	public int getRunType(int r) {
+		return runType[r];
+	}
+
+	/**
+	 * Get number of agents of a run
+	 * @param r run id
+	 * @return agents
+	 */
+	public int getRunLength(int r) {
+		return r == 0 ? runEnd[0] : runEnd[r] - runEnd[r-1];
+	}
+
+	/**
+	 * Get type of an agent
+	 * @param i agent id
+	 * @return type id
+	 */
+	public int getAgentType(int i) {
+		// run ends are increasing, agent i is in the first run that ends after it
+		int r = Arrays.binarySearch(runEnd, 0, nRuns, i);
+		return runType[r >= 0 ? r+1 : -(r+1)];
+	}
+
+	/**
+	 * Hash of the model content, equal models have equal fingerprints
+	 * @param cmdp model
+	 * @return fingerprint
+	 */
+	public static long fingerprint(CMDP cmdp) {
+		long h = 1125899906842597L;
+		h = 31*h + cmdp.getNumStates();
+		h = 31*h + cmdp.getNumActions();
+		h = 31*h + cmdp.getInitialState();
+		h = 31*h + Double.doubleToLongBits(cmdp.getDiscountFactor());
+
+		double[] rewards = cmdp.getRewards();
+		double[] costs = cmdp.getCosts();
+		for(int sa=0; sa<rewards.length; sa++) {
+			h = 31*h + Double.doubleToLongBits(rewards[sa]);
+			h = 31*h + Double.doubleToLongBits(costs[sa]);
+		}
+		h = 31*h + cmdp.getNumResources();
+		for(int k=1; k<cmdp.getNumResources(); k++) {
+			for(double cost : cmdp.getCosts(k)) {
+				h = 31*h + Double.doubleToLongBits(cost);
+			}
+		}
+
+		int[] start = cmdp.getSuccessorStarts();
+		int[] successor = cmdp.getSuccessorStates();
+		double[] probability = cmdp.getSuccessorProbabilities();
+		for(int sa=0; sa<rewards.length; sa++) {
+			h = 31*h + start[sa+1];
+		}
+		for(int k=0; k<cmdp.getNumTransitions(); k++) {
+			h = 31*h + successor[k];
+			h = 31*h + Double.doubleToLongBits(probability[k]);
+		}
+
+		return h;
+	}
+
+	/**
+	 * Check whether two agents can be planned as the same type
+	 * @param m1 first model
+	 * @param m2 second model
+	 * @return true if both models are identical
+	 */
+	public static boolean sameModel(CMDP m1, CMDP m2) {
+		if(m1 == m2) {
+			return true;
+		}
+
+		if(m1.getNumStates() != m2.getNumStates() || m1.getNumActions() != m2.getNumActions() || m1.getInitialState() != m2.getInitialState() || m1.getDiscountFactor() != m2.getDiscountFactor()) {
+			return false;
+		}
+
+		if(!Arrays.equals(m1.getRewards(), m2.getRewards()) || m1.getNumResources() != m2.getNumResources()) {
+			return false;
+		}
+		for(int k=0; k<m1.getNumResources(); k++) {
+			if(!Arrays.equals(m1.getCosts(k), m2.getCosts(k))) {
+				return false;
+			}
+		}
+
+		if(m1.sharesTransitions(m2)) {
+			return true;
+		}
+
+		// successor arrays may be longer than the number of entries in use
+		int nnz = m1.getNumTransitions();
+		if(nnz != m2.getNumTransitions() || !Arrays.equals(m1.getSuccessorStarts(), m2.getSuccessorStarts())) {
+			return false;
+		}
+
+		int[] successor1 = m1.getSuccessorStates();
+		int[] successor2 = m2.getSuccessorStates();
+		double[] probability1 = m1.getSuccessorProbabilities();
+		double[] probability2 = m2.getSuccessorProbabilities();
+		for(int k=0; k<nnz; k++) {
+			if(successor1[k] != successor2[k] || probability1[k] != probability2[k]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
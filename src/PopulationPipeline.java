@@ -0,0 +1,492 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.SplittableRandom;
+import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.function.DoubleSupplier;
+import java.util.stream.IntStream;
+
+
+/**
+ * Plans and simulates a user population that is read as a stream, so that
+ * the heap does not grow with the number of users. A user is a segment id
+ * with optional overrides, users with the same segment and overrides form a
+ * type whose model is created once by a ModelFactory.
+ * A first pass over the users counts the users of each type, then all types
+ * are planned together with one occupancy-measure LP. A second pass simulates
+ * one run per user, in blocks of USERS_PER_BLOCK users that run in parallel,
+ * and emits the users in input order to a Sink. Block b uses the b-th split
+ * of the seed, so outcomes do not depend on the thread count.
+ * Memory depends on the number of types and the batch size, not on the
+ * number of users.
+ */
+public class PopulationPipeline {
+	private static final int USERS_PER_BLOCK = 256;
+	private static final int BLOCKS_PER_BATCH = 64;
+
+	private final ModelFactory models;
+	private final PlanningAlgorithm planner = new PlanningAlgorithm();
+	private Metrics metrics = Metrics.NOOP;
+	private long seed = 0L;
+
+	/**
+	 * Create a pipeline
+	 * @param models creates the model of each type
+	 */
+	public PopulationPipeline(ModelFactory models) {
+		this.models = models;
+	}
+
+	/**
+	 * Get the planner of the types, for configuration
+	 * @return planner
+	 */
+	public PlanningAlgorithm getPlanner() {
+		return planner;
+	}
+
+	/**
+	 * Set the receiver of timings of both passes and of the planner
+	 * @param metrics metrics, Metrics.NOOP to disable
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+		planner.setMetrics(metrics);
+	}
+
+	/**
+	 * Set the seed of the simulated runs
+	 * @param seed seed
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Plan a population and emit the policy of every type and the simulated
+	 * outcome of every user
+	 * @param users users, iterated twice in the same order
+	 * @param budgetPerUser budget of resource 0, the limit of all users is budgetPerUser times their number
+	 * @param sink receiver of the types and users
+	 * @return totals of the population
+	 */
+	public Summary run(Iterable<User> users, double budgetPerUser, Sink sink) {
+		// first pass, types in order of their first user
+		long start = System.nanoTime();
+		Map<String,Integer> typeIds = new HashMap<String,Integer>();
+		List<String> keys = new ArrayList<String>();
+		List<CMDP> typeModels = new ArrayList<CMDP>();
+		int[] counts = new int[16];
+		long nUsers = 0;
+		Iterator<User> it = users.iterator();
+		try {
+			while(it.hasNext()) {
+				User user = it.next();
+				// agents of a Population are counted with int
+				if(nUsers == Integer.MAX_VALUE) {
+					throw new IllegalArgumentException("More than " + Integer.MAX_VALUE + " users");
+				}
+				Integer type = typeIds.get(user.getTypeKey());
+				if(type == null) {
+					type = keys.size();
+					typeIds.put(user.getTypeKey(), type);
+					keys.add(user.getTypeKey());
+					typeModels.add(models.model(user.getSegment(), user.getOverrides()));
+					if(type == counts.length) {
+						counts = Arrays.copyOf(counts, 2*type);
+					}
+				}
+				counts[type]++;
+				nUsers++;
+			}
+		} finally {
+			close(it);
+		}
+
+		Population population = new Population();
+		for(int t=0; t<keys.size(); t++) {
+			population.add(typeModels.get(t), counts[t]);
+		}
+		metrics.recordTime(Metrics.PLAN_MODEL, System.nanoTime() - start);
+		if(nUsers == 0) {
+			return new Summary(0, 0, 0.0, 0.0, 0.0, 0.0);
+		}
+
+		Solution plan = planner.solveTypes(population, new ResourceLimits(budgetPerUser * nUsers));
+		for(int t=0; t<keys.size(); t++) {
+			sink.type(t, keys.get(t), plan.getCompactPolicy(t), counts[t]);
+		}
+
+		// second pass, one batch of blocks at a time
+		CMDP[] types = typeModels.toArray(new CMDP[0]);
+		SplittableRandom root = new SplittableRandom(seed);
+		Simulator simulator = new Simulator(root::nextDouble);
+		simulator.setMetrics(metrics);
+		Simulator.Rollout[] rollouts = simulator.prepare(types, plan);
+
+		User[] batch = new User[USERS_PER_BLOCK * BLOCKS_PER_BATCH];
+		int[] batchType = new int[batch.length];
+		double[] reward = new double[batch.length];
+		double[] cost = new double[batch.length];
+		double simulatedReward = 0.0;
+		double simulatedCost = 0.0;
+		long steps = 0;
+
+		start = System.nanoTime();
+		it = users.iterator();
+		try {
+			while(it.hasNext()) {
+				int n = 0;
+				while(n < batch.length && it.hasNext()) {
+					batch[n] = it.next();
+					Integer type = typeIds.get(batch[n].getTypeKey());
+					if(type == null) {
+						throw new IllegalStateException("User " + batch[n].getId() + " was not seen in the first pass");
+					}
+					batchType[n] = type;
+					steps += rollouts[type].getNumSteps();
+					n++;
+				}
+
+				int nBlocks = (n + USERS_PER_BLOCK - 1) / USERS_PER_BLOCK;
+				SplittableRandom[] streams = new SplittableRandom[nBlocks];
+				for(int b=0; b<nBlocks; b++) {
+					streams[b] = root.split();
+				}
+
+				int batchSize = n;
+				IntStream.range(0, nBlocks).parallel().forEach(b -> {
+					DoubleSupplier blockUniform = streams[b]::nextDouble;
+					double[] totals = new double[2];
+					for(int u=b*USERS_PER_BLOCK; u<Math.min(batchSize, (b+1)*USERS_PER_BLOCK); u++) {
+						totals[0] = 0.0;
+						totals[1] = 0.0;
+						rollouts[batchType[u]].run(blockUniform, false, totals);
+						reward[u] = totals[0];
+						cost[u] = totals[1];
+					}
+				});
+
+				for(int u=0; u<n; u++) {
+					sink.user(batch[u], batchType[u], reward[u], cost[u]);
+					simulatedReward += reward[u];
+					simulatedCost += cost[u];
+					batch[u] = null;
+				}
+			}
+		} finally {
+			close(it);
+		}
+		metrics.recordTime(Metrics.SIMULATE_RUN, System.nanoTime() - start);
+		metrics.increment(Metrics.SIMULATE_STEPS, steps);
+
+		return new Summary(nUsers, keys.size(), plan.getExpectedReward(), plan.getExpectedCost(), simulatedReward, simulatedCost);
+	}
+
+	/**
+	 * Read users from a text file with one user per line, "id segment
+	 * key=value ...". Empty lines and lines starting with # are skipped.
+	 * Every iteration reads the file again. Its iterators are Closeable and
+	 * close the file at the end of the file, run also closes them when a
+	 * pass stops early.
+	 * @param fileName user file
+	 * @return users
+	 */
+	public static Iterable<User> read(String fileName) {
+		return () -> new UserReader(fileName);
+	}
+
+	/**
+	 * Iterator over the users of a file, reading one line ahead
+	 */
+	private static class UserReader implements Iterator<User>, Closeable {
+		private final BufferedReader reader;
+		private User next;
+
+		public UserReader(String fileName) {
+			this.reader = open(fileName);
+			try {
+				this.next = advance();
+			} catch (RuntimeException ex) {
+				try {
+					reader.close();
+				} catch (IOException e) { }
+				throw ex;
+			}
+		}
+
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		public User next() {
+			if(next == null) {
+				throw new NoSuchElementException();
+			}
+			User user = next;
+			next = advance();
+			return user;
+		}
+
+		private User advance() {
+			try {
+				String line;
+				while((line = reader.readLine()) != null) {
+					line = line.trim();
+					if(!line.isEmpty() && line.charAt(0) != '#') {
+						return parse(line);
+					}
+				}
+				reader.close();
+				return null;
+			} catch (IOException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		public void close() throws IOException {
+			next = null;
+			reader.close();
+		}
+	}
+
+	/**
+	 * Close an iterator of read, for example after the sink failed
+	 */
+	private static void close(Iterator<User> it) {
+		if(it instanceof Closeable) {
+			try {
+				((Closeable) it).close();
+			} catch (IOException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+	}
+
+	private static BufferedReader open(String fileName) {
+		try {
+			return Files.newBufferedReader(Paths.get(fileName), StandardCharsets.UTF_8);
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private static User parse(String line) {
+		StringTokenizer tokens = new StringTokenizer(line);
+		if(tokens.countTokens() < 2) {
+			throw new RuntimeException("Expected user id and segment in: " + line);
+		}
+		String id = tokens.nextToken();
+		String segment = tokens.nextToken();
+
+		SortedMap<String,String> overrides = new TreeMap<String,String>();
+		while(tokens.hasMoreTokens()) {
+			String token = tokens.nextToken();
+			int eq = token.indexOf('=');
+			if(eq <= 0) {
+				throw new RuntimeException("Expected key=value instead of " + token + " in: " + line);
+			}
+			overrides.put(token.substring(0, eq), token.substring(eq+1));
+		}
+		return new User(id, segment, overrides);
+	}
+
+	/**
+	 * Creates the model of a type. It is called once per distinct segment and
+	 * overrides, so overrides should take few distinct values.
+	 */
+	public interface ModelFactory {
+		public CMDP model(String segment, SortedMap<String,String> overrides);
+	}
+
+	/**
+	 * Receiver of the results, called from the thread running the pipeline
+	 */
+	public interface Sink {
+		/**
+		 * Receive the policy of a type, all types are received before the first user
+		 * @param type type id
+		 * @param key segment followed by the overrides
+		 * @param policy policy shared by the users of the type
+		 * @param users number of users of the type
+		 */
+		default void type(int type, String key, Policy policy, int users) {
+		}
+
+		/**
+		 * Receive the outcome of one simulated run of a user, users arrive in input order
+		 * @param user user
+		 * @param type type id
+		 * @param reward discounted reward of the run
+		 * @param cost discounted cost of the run
+		 */
+		public void user(User user, int type, double reward, double cost);
+	}
+
+	/**
+	 * Sink writing lines "type id users key", "policy type state p(a=0) p(a=1) ..."
+	 * and "user id type reward cost"
+	 */
+	public static class TextSink implements Sink, Closeable {
+		private final PrintWriter out;
+
+		/**
+		 * Create a sink writing to a file
+		 * @param fileName target file, replaced if it exists
+		 */
+		public TextSink(String fileName) {
+			try {
+				this.out = new PrintWriter(new BufferedWriter(Files.newBufferedWriter(Paths.get(fileName), StandardCharsets.UTF_8)));
+			} catch (IOException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+
+		public void type(int type, String key, Policy policy, int users) {
+			out.println("type " + type + " " + users + " " + key);
+			StringBuilder line = new StringBuilder();
+			for(int s=0; s<policy.getNumStates(); s++) {
+				line.setLength(0);
+				line.append("policy ").append(type).append(' ').append(s);
+				for(int a=0; a<policy.getNumActions(); a++) {
+					line.append(' ').append(policy.getProbability(s, a));
+				}
+				out.println(line);
+			}
+		}
+
+		public void user(User user, int type, double reward, double cost) {
+			out.println("user " + user.getId() + " " + type + " " + reward + " " + cost);
+		}
+
+		public void close() {
+			out.close();
+			if(out.checkError()) {
+				throw new RuntimeException("Could not write users");
+			}
+		}
+	}
+
+	/**
+	 * User of a population
+	 */
+	public static class User {
+		private final String id;
+		private final String segment;
+		private final SortedMap<String,String> overrides;
+		private final String typeKey;
+
+		/**
+		 * Create a user
+		 * @param id user id
+		 * @param segment segment id
+		 * @param overrides per-user parameters of the model, must not be modified afterwards
+		 */
+		public User(String id, String segment, SortedMap<String,String> overrides) {
+			this.id = id;
+			this.segment = segment;
+			this.overrides = overrides;
+
+			StringBuilder key = new StringBuilder(segment);
+			for(Map.Entry<String,String> e : overrides.entrySet()) {
+				key.append(' ').append(e.getKey()).append('=').append(e.getValue());
+			}
+			this.typeKey = key.toString();
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public String getSegment() {
+			return segment;
+		}
+
+		public SortedMap<String,String> getOverrides() {
+			return overrides;
+		}
+
+		/**
+		 * Get the segment followed by the overrides, users with the same key have the same type
+		 * @return key
+		 */
+		public String getTypeKey() {
+			return typeKey;
+		}
+	}
+
+	/**
+	 * Planned expectations and simulated totals of a population
+	 */
+	public static class Summary {
+		private final long numUsers;
+		private final int numTypes;
+		private final double expectedReward;
+		private final double expectedCost;
+		private final double simulatedReward;
+		private final double simulatedCost;
+
+		public Summary(long numUsers, int numTypes, double expectedReward, double expectedCost, double simulatedReward, double simulatedCost) {
+			this.numUsers = numUsers;
+			this.numTypes = numTypes;
+			this.expectedReward = expectedReward;
+			this.expectedCost = expectedCost;
+			this.simulatedReward = simulatedReward;
+			this.simulatedCost = simulatedCost;
+		}
+
+		public long getNumUsers() {
+			return numUsers;
+		}
+
+		public int getNumTypes() {
+			return numTypes;
+		}
+
+		/**
+		 * Get expected reward of all users under the plan
+		 * @return expected reward
+		 */
+		public double getExpectedReward() {
+			return expectedReward;
+		}
+
+		/**
+		 * Get expected cost of all users under the plan
+		 * @return expected cost
+		 */
+		public double getExpectedCost() {
+			return expectedCost;
+		}
+
+		/**
+		 * Get sum of the simulated rewards of all users
+		 * @return simulated reward
+		 */
+		public double getSimulatedReward() {
+			return simulatedReward;
+		}
+
+		/**
+		 * Get sum of the simulated costs of all users
+		 * @return simulated cost
+		 */
+		public double getSimulatedCost() {
+			return simulatedCost;
+		}
+	}
+}
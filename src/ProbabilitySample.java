@@ -7,6 +7,7 @@ public class ProbabilitySample {
 	private List<Item> items;
 	private Random rnd;
 	private double probabilitySum = 0.0;
+	private DiscreteSampler sampler = null;
 	
 	public ProbabilitySample(Random rnd) {
 		items = new ArrayList<Item>();
@@ -18,6 +19,7 @@ public class ProbabilitySample {
 		if(probability > 0.0) {
 			items.add(new Item(item,probability));
 			probabilitySum += probability;
+			sampler = null;
 		}
 	}
 	
@@ -25,20 +27,16 @@ public class ProbabilitySample {
 		assert Math.abs(probabilitySum-1.0) < 0.001 : "No valid probability distribution: "+probabilitySum;
 		assert items.size() > 0 : "No items added";
 		
-		double cumulative = 0.0;
-		double randomNumber = rnd.nextDouble();
-		int retItem = items.get(items.size()-1).item;
-		
-		for(Item item : items) {
-			cumulative += item.probability;
-			
-			if(randomNumber <= cumulative) {
-				retItem = item.item;
-				break;
+		// built on the first draw after the last added item
+		if(sampler == null) {
+			double[] weights = new double[items.size()];
+			for(int i=0; i<weights.length; i++) {
+				weights[i] = items.get(i).probability;
 			}
+			sampler = DiscreteSampler.of(weights);
 		}
 		
-		return retItem;
+		return items.get(sampler.sample(rnd.nextDouble())).item;
 	}
 	
 	private class Item {
@@ -0,0 +1,153 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Budgets of a constrained problem with several resources. Every resource
+ * has a limit on the expected consumption of all agents together, and
+ * agents or groups of agents can have limits of their own. A limit of
+ * Double.POSITIVE_INFINITY means that there is no limit.
+ */
+public class ResourceLimits {
+	private final double[] globalLimits;
+	private final Map<Integer,double[]> agentLimits = new HashMap<Integer,double[]>();
+	private final List<int[]> groupMembers = new ArrayList<int[]>();
+	private final List<double[]> groupLimits = new ArrayList<double[]>();
+
+	/**
+	 * Create limits for resources 0 .. globalLimits.length-1, resources of
+	 * the models beyond these are not limited
+	 * @param globalLimits limit of each resource summed over all agents
+	 */
+	public ResourceLimits(double... globalLimits) {
+		if(globalLimits.length == 0) {
+			throw new IllegalArgumentException("At least one resource is required");
+		}
+		this.globalLimits = globalLimits.clone();
+	}
+
+	public int getNumResources() {
+		return globalLimits.length;
+	}
+
+	public double getGlobalLimit(int k) {
+		return globalLimits[k];
+	}
+
+	public void setGlobalLimit(int k, double limit) {
+		globalLimits[k] = limit;
+	}
+
+	/**
+	 * Limit the consumption of a single agent
+	 * @param agent agent id
+	 * @param k resource id
+	 * @param limit limit of the expected consumption of the agent
+	 */
+	public void setAgentLimit(int agent, int k, double limit) {
+		double[] limits = agentLimits.get(agent);
+		if(limits == null) {
+			limits = new double[globalLimits.length];
+			Arrays.fill(limits, Double.POSITIVE_INFINITY);
+			agentLimits.put(agent, limits);
+		}
+		limits[k] = limit;
+	}
+
+	public double getAgentLimit(int agent, int k) {
+		double[] limits = agentLimits.get(agent);
+		return limits == null ? Double.POSITIVE_INFINITY : limits[k];
+	}
+
+	/**
+	 * Limit the consumption of a group of agents, such as a segment
+	 * @param agents agent ids of the group
+	 * @param limits limit of each resource summed over the group
+	 * @return group id
+	 */
+	public int addGroup(int[] agents, double[] limits) {
+		if(limits.length != globalLimits.length) {
+			throw new IllegalArgumentException("Expected " + globalLimits.length + " group limits, got " + limits.length);
+		}
+		groupMembers.add(agents.clone());
+		groupLimits.add(limits.clone());
+		return groupMembers.size()-1;
+	}
+
+	public int getNumGroups() {
+		return groupMembers.size();
+	}
+
+	public int[] getGroupMembers(int group) {
+		return groupMembers.get(group).clone();
+	}
+
+	public double getGroupLimit(int group, int k) {
+		return groupLimits.get(group)[k];
+	}
+
+	/**
+	 * Number the distinct combinations of agent limits and group memberships.
+	 * Agents with the same model and class have the same constraints and can
+	 * be planned as one type.
+	 * @param nAgents number of agents
+	 * @return class of each agent
+	 */
+	public int[] agentClasses(int nAgents) {
+		List<List<Integer>> groupsOfAgent = new ArrayList<List<Integer>>(nAgents);
+		for(int i=0; i<nAgents; i++) {
+			groupsOfAgent.add(null);
+		}
+		for(int g=0; g<groupMembers.size(); g++) {
+			for(int i : groupMembers.get(g)) {
+				if(groupsOfAgent.get(i) == null) {
+					groupsOfAgent.set(i, new ArrayList<Integer>());
+				}
+				groupsOfAgent.get(i).add(g);
+			}
+		}
+
+		Map<Signature,Integer> classes = new HashMap<Signature,Integer>();
+		int[] agentClass = new int[nAgents];
+		for(int i=0; i<nAgents; i++) {
+			Signature signature = new Signature(agentLimits.get(i), groupsOfAgent.get(i));
+			Integer cls = classes.get(signature);
+			if(cls == null) {
+				cls = classes.size();
+				classes.put(signature, cls);
+			}
+			agentClass[i] = cls;
+		}
+		return agentClass;
+	}
+
+	/**
+	 * Limits and groups of an agent, groups in increasing order
+	 */
+	private static class Signature {
+		private final double[] limits;
+		private final List<Integer> groups;
+
+		public Signature(double[] limits, List<Integer> groups) {
+			this.limits = limits;
+			this.groups = groups;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Signature)) {
+				return false;
+			}
+			Signature other = (Signature) o;
+			return Arrays.equals(limits, other.limits) && (groups == null ? other.groups == null : groups.equals(other.groups));
+		}
+
+		@Override
+		public int hashCode() {
+			return 31*Arrays.hashCode(limits) + (groups == null ? 0 : groups.hashCode());
+		}
+	}
+}
@@ -0,0 +1,96 @@
+
+/**
+ * Statistics of a Monte Carlo evaluation. Rewards and costs are summed over
+ * all agents per run, confidence intervals use the normal approximation.
+ */
+public class SimulationResult {
+	private static final double Z_95 = 1.959963984540054;
+
+	private final int numRuns;
+	private final double meanReward;
+	private final double rewardVariance;
+	private final double meanCost;
+	private final double costVariance;
+	private final double[] meanRewardAgent;
+	private final double[] meanCostAgent;
+	private final double costLimit;
+	private final double violationProbability;
+
+	public SimulationResult(int numRuns, double meanReward, double rewardVariance, double meanCost, double costVariance, double[] meanRewardAgent, double[] meanCostAgent, double costLimit, double violationProbability) {
+		this.numRuns = numRuns;
+		this.meanReward = meanReward;
+		this.rewardVariance = rewardVariance;
+		this.meanCost = meanCost;
+		this.costVariance = costVariance;
+		this.meanRewardAgent = meanRewardAgent;
+		this.meanCostAgent = meanCostAgent;
+		this.costLimit = costLimit;
+		this.violationProbability = violationProbability;
+	}
+
+	public int getNumRuns() {
+		return numRuns;
+	}
+
+	public double getMeanReward() {
+		return meanReward;
+	}
+
+	/**
+	 * Get sample variance of the total reward of a run
+	 * @return variance
+	 */
+	public double getRewardVariance() {
+		return rewardVariance;
+	}
+
+	/**
+	 * Get 95% confidence interval of the mean reward
+	 * @return lower and upper bound
+	 */
+	public double[] getRewardConfidenceInterval() {
+		double halfWidth = Z_95 * Math.sqrt(rewardVariance / numRuns);
+		return new double[]{meanReward - halfWidth, meanReward + halfWidth};
+	}
+
+	public double getMeanCost() {
+		return meanCost;
+	}
+
+	/**
+	 * Get sample variance of the total cost of a run
+	 * @return variance
+	 */
+	public double getCostVariance() {
+		return costVariance;
+	}
+
+	/**
+	 * Get 95% confidence interval of the mean cost
+	 * @return lower and upper bound
+	 */
+	public double[] getCostConfidenceInterval() {
+		double halfWidth = Z_95 * Math.sqrt(costVariance / numRuns);
+		return new double[]{meanCost - halfWidth, meanCost + halfWidth};
+	}
+
+	public double getMeanReward(int i) {
+		return meanRewardAgent[i];
+	}
+
+	public double getMeanCost(int i) {
+		return meanCostAgent[i];
+	}
+
+	public double getCostLimit() {
+		return costLimit;
+	}
+
+	/**
+	 * Get fraction of runs whose total cost exceeds the cost limit
+	 * @return empirical violation probability
+	 */
+	public double getViolationProbability() {
+		return violationProbability;
+	}
+}
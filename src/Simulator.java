@@ -1,65 +1,354 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.function.DoubleSupplier;
+import java.util.stream.IntStream;
 
 
+/**
+ * Monte Carlo evaluation of a solution. Samplers for the policies and the
+ * transitions are built once per simulation, after which a step draws two
+ * uniform numbers and allocates nothing.
+ * Seeded simulations run in parallel on fixed blocks of runs, each with its
+ * own split of the seed, so their results do not depend on the thread count.
+ */
 public class Simulator {
-	private Random rnd;
+	private static final int RUNS_PER_BLOCK = 256;
+
+	private final DoubleSupplier uniform;
 	private boolean printActions = false;
-	
+	private Metrics metrics = Metrics.NOOP;
+
 	public Simulator(Random rnd) {
-		this.rnd = rnd;
+		this(rnd::nextDouble);
+	}
+
+	/**
+	 * Create a simulator with its own source of random numbers
+	 * @param uniform uniform numbers in [0,1), e.g. SplittableRandom::nextDouble
+	 */
+	public Simulator(DoubleSupplier uniform) {
+		this.uniform = uniform;
 	}
 
 	public void printActions() {
 		this.printActions = true;
 	}
-	
+
+	/**
+	 * Set the receiver of timings, throughput and allocation counts
+	 * @param metrics metrics, Metrics.NOOP to disable
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
 	public void simulate(CMDP[] cmdps, Solution solution, int numRuns) {
+		Rollout[] rollouts = prepare(cmdps, solution);
+		double[] totals = new double[2];
 		double meanReward = 0.0;
 		double meanCost = 0.0;
-		
+
+		long start = System.nanoTime();
+
 		for(int run=0; run<numRuns; run++) {
-			double runReward = 0.0;
-			double runCost = 0.0;
-			
-			for(int i=0; i<cmdps.length; i++) {
-				CMDP cmdp = cmdps[i];
-				double[][] policy = solution.getPolicy(i);
-				int numSteps = (int) Math.ceil(Math.log(0.00000001) / Math.log(cmdp.getDiscountFactor()));
-				
-				int state = cmdp.getInitialState();
-				for(int step=0; step<numSteps; step++) {
-					// select action
-					ProbabilitySample ps = new ProbabilitySample(rnd);
-					for(int a=0; a<cmdp.getNumActions(); a++) {
-						ps.addItem(a, policy[state][a]);
-					}
-					int a = ps.sampleItem();
-					
-					// get reward
-					double r = cmdp.getReward(state, a) * Math.pow(cmdp.getDiscountFactor(), ((double) step));
-					runReward += r;
-					
-					if(printActions) System.out.println("Step "+step+": state "+state+", execute "+a+", get reward "+r);
-					
-					// get cost
-					double c = cmdp.getCost(state, a) * Math.pow(cmdp.getDiscountFactor(), ((double) step));
-					runCost += c;
-					
-					// transition to next state
-					ps = new ProbabilitySample(rnd);
-					for(int sNext=0; sNext<cmdp.getNumStates(); sNext++) {
-						ps.addItem(sNext, cmdp.getTransitionProbability(state, a, sNext));
-					}
-					state = ps.sampleItem();
-				}
+			totals[0] = 0.0;
+			totals[1] = 0.0;
+			for(Rollout rollout : rollouts) {
+				rollout.run(uniform, printActions, totals);
 			}
-			
-			meanReward = ((meanReward * ((double) run)) + runReward) / ((double) (run+1));
-			meanCost = ((meanCost * ((double) run)) + runCost) / ((double) (run+1));
+
+			meanReward = ((meanReward * ((double) run)) + totals[0]) / ((double) (run+1));
+			meanCost = ((meanCost * ((double) run)) + totals[1]) / ((double) (run+1));
 		}
-		
+		recordRuns(rollouts, numRuns, System.nanoTime() - start);
+
 		System.out.println("Mean reward: "+meanReward);
 		System.out.println("Mean cost: "+meanCost);
-		
+
+	}
+
+	/**
+	 * Simulate in parallel without a cost limit
+	 * @see #simulate(CMDP[], Solution, int, long, double)
+	 */
+	public SimulationResult simulate(CMDP[] cmdps, Solution solution, int numRuns, long seed) {
+		return simulate(cmdps, solution, numRuns, seed, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Simulate runs in parallel. Block b of RUNS_PER_BLOCK runs uses the b-th
+	 * split of the seed and statistics are combined in run order, so the result
+	 * is reproducible for a given seed.
+	 * @param cmdps agents
+	 * @param solution policies of the agents
+	 * @param numRuns number of runs
+	 * @param seed seed of the random streams
+	 * @param costLimit budget used for the violation probability
+	 * @return statistics of the runs
+	 */
+	public SimulationResult simulate(CMDP[] cmdps, Solution solution, int numRuns, long seed, double costLimit) {
+		Rollout[] rollouts = prepare(cmdps, solution);
+		int nAgents = cmdps.length;
+		int nBlocks = (numRuns + RUNS_PER_BLOCK - 1) / RUNS_PER_BLOCK;
+
+		SplittableRandom root = new SplittableRandom(seed);
+		SplittableRandom[] streams = new SplittableRandom[nBlocks];
+		for(int b=0; b<nBlocks; b++) {
+			streams[b] = root.split();
+		}
+
+		double[] runReward = new double[numRuns];
+		double[] runCost = new double[numRuns];
+		double[][] blockRewardAgent = new double[nBlocks][nAgents];
+		double[][] blockCostAgent = new double[nBlocks][nAgents];
+
+		long start = System.nanoTime();
+		IntStream.range(0, nBlocks).parallel().forEach(b -> {
+			DoubleSupplier blockUniform = streams[b]::nextDouble;
+			double[] totals = new double[2];
+
+			for(int run=b*RUNS_PER_BLOCK; run<Math.min(numRuns, (b+1)*RUNS_PER_BLOCK); run++) {
+				for(int i=0; i<nAgents; i++) {
+					totals[0] = 0.0;
+					totals[1] = 0.0;
+					rollouts[i].run(blockUniform, false, totals);
+
+					runReward[run] += totals[0];
+					runCost[run] += totals[1];
+					blockRewardAgent[b][i] += totals[0];
+					blockCostAgent[b][i] += totals[1];
+				}
+			}
+		});
+		recordRuns(rollouts, numRuns, System.nanoTime() - start);
+
+		double[] meanRewardAgent = new double[nAgents];
+		double[] meanCostAgent = new double[nAgents];
+		for(int b=0; b<nBlocks; b++) {
+			for(int i=0; i<nAgents; i++) {
+				meanRewardAgent[i] += blockRewardAgent[b][i] / numRuns;
+				meanCostAgent[i] += blockCostAgent[b][i] / numRuns;
+			}
+		}
+
+		int violations = 0;
+		for(int run=0; run<numRuns; run++) {
+			if(runCost[run] > costLimit) {
+				violations++;
+			}
+		}
+
+		double meanReward = mean(runReward);
+		double meanCost = mean(runCost);
+		return new SimulationResult(numRuns, meanReward, variance(runReward, meanReward), meanCost, variance(runCost, meanCost), meanRewardAgent, meanCostAgent, costLimit, ((double) violations) / numRuns);
+	}
+
+	/**
+	 * Record run time and throughput, runs have a fixed number of steps so they are not counted in the loop
+	 */
+	private void recordRuns(Rollout[] rollouts, int numRuns, long nanos) {
+		long steps = 0;
+		for(Rollout rollout : rollouts) {
+			steps += rollout.numSteps;
+		}
+		steps *= numRuns;
+
+		metrics.recordTime(Metrics.SIMULATE_RUN, nanos);
+		metrics.increment(Metrics.SIMULATE_STEPS, steps);
+		if(nanos > 0) {
+			metrics.record(Metrics.SIMULATE_THROUGHPUT, steps / (nanos * 1e-9));
+		}
+	}
+
+	private static double mean(double[] x) {
+		double sum = 0.0;
+		for(double v : x) {
+			sum += v;
+		}
+		return sum / x.length;
+	}
+
+	private static double variance(double[] x, double mean) {
+		if(x.length < 2) {
+			return 0.0;
+		}
+
+		double sum = 0.0;
+		for(double v : x) {
+			sum += (v - mean) * (v - mean);
+		}
+		return sum / (x.length - 1);
+	}
+
+	/**
+	 * Build the sampling tables of all agents. Models are compared by their
+	 * arrays, so copies of a model that share transitions share their
+	 * samplers, and agents with the same arrays and policy share a rollout.
+	 * Callers that simulate agents one at a time run the returned rollouts
+	 * themselves.
+	 * @param cmdps agents
+	 * @param solution policies of the agents
+	 * @return rollout of each agent
+	 */
+	public Rollout[] prepare(CMDP[] cmdps, Solution solution) {
+		long start = System.nanoTime();
+		Map<Transitions,DiscreteSampler[]> transitions = new HashMap<Transitions,DiscreteSampler[]>();
+		Map<Policy,List<Rollout>> shared = new IdentityHashMap<Policy,List<Rollout>>();
+		Rollout[] rollouts = new Rollout[cmdps.length];
+		int built = 0;
+
+		for(int i=0; i<cmdps.length; i++) {
+			CMDP cmdp = cmdps[i];
+			Policy policy = solution.getCompactPolicy(i);
+
+			List<Rollout> candidates = shared.computeIfAbsent(policy, p -> new ArrayList<Rollout>());
+			Rollout rollout = null;
+			for(Rollout candidate : candidates) {
+				if(candidate.sharesModel(cmdp)) {
+					rollout = candidate;
+					break;
+				}
+			}
+
+			if(rollout == null) {
+				DiscreteSampler[] transitionSamplers = transitions.computeIfAbsent(new Transitions(cmdp), t -> transitionSamplers(cmdp));
+				rollout = new Rollout(cmdp, policy, transitionSamplers);
+				candidates.add(rollout);
+				built++;
+			}
+			rollouts[i] = rollout;
+		}
+
+		metrics.recordTime(Metrics.SIMULATE_PREPARE, System.nanoTime() - start);
+		metrics.increment(Metrics.SIMULATE_SAMPLERS, transitions.size());
+		metrics.increment(Metrics.SIMULATE_ROLLOUTS, built);
+		return rollouts;
+	}
+
+	/**
+	 * Successor sampler of every state-action pair at s*nActions+a, sampling offsets into the successor list
+	 */
+	private static DiscreteSampler[] transitionSamplers(CMDP cmdp) {
+		DiscreteSampler[] samplers = new DiscreteSampler[cmdp.getNumStates()*cmdp.getNumActions()];
+		for(int s=0; s<cmdp.getNumStates(); s++) {
+			for(int a=0; a<cmdp.getNumActions(); a++) {
+				int start = cmdp.getSuccessorStart(s, a);
+				double[] probabilities = new double[cmdp.getSuccessorEnd(s, a) - start];
+				for(int k=0; k<probabilities.length; k++) {
+					probabilities[k] = cmdp.getSuccessorProbability(start+k);
+				}
+				samplers[s*cmdp.getNumActions()+a] = DiscreteSampler.of(probabilities);
+			}
+		}
+		return samplers;
+	}
+
+	/**
+	 * Transition arrays of a model, equal if the arrays are the same objects
+	 */
+	private static final class Transitions {
+		private final int[] successorStart;
+		private final int[] successorState;
+		private final double[] successorProbability;
+
+		public Transitions(CMDP cmdp) {
+			this.successorStart = cmdp.getSuccessorStarts();
+			this.successorState = cmdp.getSuccessorStates();
+			this.successorProbability = cmdp.getSuccessorProbabilities();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Transitions)) {
+				return false;
+			}
+			Transitions other = (Transitions) o;
+			return successorStart == other.successorStart && successorState == other.successorState && successorProbability == other.successorProbability;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31*(31*System.identityHashCode(successorStart) + System.identityHashCode(successorState)) + System.identityHashCode(successorProbability);
+		}
+	}
+
+	/**
+	 * Precomputed data of one agent, a rollout can be run by several threads
+	 */
+	public static class Rollout {
+		private final CMDP cmdp;
+		private final int nActions;
+		private final int initialState;
+		private final double discountFactor;
+		private final int numSteps;
+		private final double[] rewards;
+		private final double[] costs;
+		private final int[] successorStart;
+		private final int[] successorState;
+		private final Policy policy;
+		private final DiscreteSampler[] transitions;
+
+		public Rollout(CMDP cmdp, Policy policy, DiscreteSampler[] transitions) {
+			this.cmdp = cmdp;
+			this.nActions = cmdp.getNumActions();
+			this.initialState = cmdp.getInitialState();
+			this.discountFactor = cmdp.getDiscountFactor();
+			this.numSteps = (int) Math.ceil(Math.log(0.00000001) / Math.log(discountFactor));
+			this.rewards = ValueIteration.rewardVector(cmdp);
+			this.costs = ValueIteration.costVector(cmdp);
+			this.successorStart = cmdp.getSuccessorStarts();
+			this.successorState = cmdp.getSuccessorStates();
+			this.policy = policy;
+			this.transitions = transitions;
+		}
+
+		/**
+		 * Check whether an agent with this policy can use the rollout, which
+		 * holds if its model shares all arrays read by a run
+		 */
+		private boolean sharesModel(CMDP other) {
+			return cmdp.sharesTransitions(other) && rewards == ValueIteration.rewardVector(other) && costs == ValueIteration.costVector(other)
+					&& initialState == other.getInitialState() && discountFactor == other.getDiscountFactor();
+		}
+
+		/**
+		 * Get number of steps of a run, after which the discount is below 1e-8
+		 * @return steps
+		 */
+		public int getNumSteps() {
+			return numSteps;
+		}
+
+		/**
+		 * Simulate one run and add its discounted reward and cost to totals[0] and totals[1]
+		 */
+		public void run(DoubleSupplier uniform, boolean printActions, double[] totals) {
+			double runReward = 0.0;
+			double runCost = 0.0;
+			double discount = 1.0;
+
+			int state = initialState;
+			for(int step=0; step<numSteps; step++) {
+				int a = policy.sampleAction(state, uniform.getAsDouble());
+				int sa = state*nActions + a;
+
+				double r = rewards[sa] * discount;
+				runReward += r;
+				runCost += costs[sa] * discount;
+
+				if(printActions) System.out.println("Step "+step+": state "+state+", execute "+a+", get reward "+r);
+
+				state = successorState[successorStart[sa] + transitions[sa].sample(uniform.getAsDouble())];
+				discount *= discountFactor;
+			}
+
+			totals[0] += runReward;
+			totals[1] += runCost;
+		}
 	}
 }
@@ -1,23 +1,82 @@
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
 
 
 public class Solution {
-	private ArrayList<double[][]> policies;
+	// agents of the same type share one policy
+	private Policy[] policies;
 	private double expectedReward;
 	private double expectedCost;
 	private double[] expectedRewardAgent;
 	private double[] expectedCostAgent;
 	
+	// expected consumption of resource k by agent i, row 0 is expectedCostAgent
+	private double[][] expectedConsumptionAgent;
+	
 	public Solution(ArrayList<double[][]> policies, double expectedReward, double expectedCost, double[] expectedRewardAgent, double[] expectedCostAgent) {
+		this(compact(policies), expectedReward, expectedCost, expectedRewardAgent, new double[][]{expectedCostAgent});
+	}
+	
+	/**
+	 * Create a solution with the consumption of several resources, the cost
+	 * is the consumption of resource 0
+	 * @param policies policy of each agent, agents may share a policy
+	 * @param expectedConsumptionAgent expected consumption of resource k by agent i at [k][i]
+	 */
+	public Solution(Policy[] policies, double expectedReward, double expectedCost, double[] expectedRewardAgent, double[][] expectedConsumptionAgent) {
 		this.policies = policies;
 		this.expectedReward = expectedReward;
 		this.expectedCost = expectedCost;
 		this.expectedRewardAgent = expectedRewardAgent;
-		this.expectedCostAgent = expectedCostAgent;
+		this.expectedCostAgent = expectedConsumptionAgent[0];
+		this.expectedConsumptionAgent = expectedConsumptionAgent;
+	}
+	
+	/**
+	 * Convert dense policies, agents with the same array share the policy
+	 */
+	private static Policy[] compact(ArrayList<double[][]> policies) {
+		Map<double[][],Policy> converted = new IdentityHashMap<double[][],Policy>();
+		Policy[] compact = new Policy[policies.size()];
+		for(int i=0; i<compact.length; i++) {
+			compact[i] = converted.computeIfAbsent(policies.get(i), Policy::of);
+		}
+		return compact;
 	}
 	
+	/**
+	 * Get the policy of an agent as dense action probabilities. Each call
+	 * allocates a states x actions array, repeated access should use
+	 * getCompactPolicy or sampleAction instead.
+	 * @param i agent id
+	 * @return new array, policy[s][a] is the probability of a in s
+	 */
 	public double[][] getPolicy(int i) {
-		return policies.get(i);
+		return policies[i].toArray();
+	}
+	
+	/**
+	 * Get the policy of an agent, shared with the other agents of its type
+	 * @param i agent id
+	 * @return policy
+	 */
+	public Policy getCompactPolicy(int i) {
+		return policies[i];
+	}
+	
+	/**
+	 * Draw the next action of an agent
+	 * @param i agent id
+	 * @param s current state of the agent
+	 * @param rnd random number generator, only used in randomized states
+	 * @return action
+	 */
+	public int sampleAction(int i, int s, Random rnd) {
+		Policy policy = policies[i];
+		int a = policy.getAction(s);
+		return a >= 0 ? a : policy.sampleAction(s, rnd.nextDouble());
 	}
 	
 	public double getExpectedReward() {
@@ -36,4 +95,31 @@ public class Solution {
 		return expectedCostAgent[i];
 	}
 	
+	public int getNumResources() {
+		return expectedConsumptionAgent.length;
+	}
+	
+	/**
+	 * Get expected consumption of a resource by all agents
+	 * @param k resource id
+	 * @return expected consumption
+	 */
+	public double getExpectedConsumption(int k) {
+		double consumption = 0.0;
+		for(double c : expectedConsumptionAgent[k]) {
+			consumption += c;
+		}
+		return consumption;
+	}
+	
+	/**
+	 * Get expected consumption of a resource by an agent
+	 * @param k resource id
+	 * @param i agent id
+	 * @return expected consumption
+	 */
+	public double getExpectedConsumption(int k, int i) {
+		return expectedConsumptionAgent[k][i];
+	}
+	
 }
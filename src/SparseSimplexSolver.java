@@ -0,0 +1,951 @@
+import java.util.Arrays;
+
+import org.apache.commons.math3.exception.TooManyIterationsException;
+import org.apache.commons.math3.optim.linear.NoFeasibleSolutionException;
+import org.apache.commons.math3.optim.linear.Relationship;
+import org.apache.commons.math3.optim.linear.UnboundedSolutionException;
+
+
+/**
+ * Revised simplex method working directly on the sparse column storage of a
+ * LinearProgram. The basis inverse is kept in product form (eta file) and is
+ * rebuilt from scratch every refactorInterval pivots. Non-negativity of the
+ * variables is handled as a bound, every row gets exactly one logical column
+ * (slack or artificial) and phase 1 drives the artificials out of the basis.
+ * Etas created by a refactorization pivot on distinct rows, so transforming a
+ * column only visits the etas reachable from its non-zero rows.
+ * A solve can start from a given basis. If that basis is primal feasible the
+ * primal simplex continues from it, if it is only dual feasible (typically
+ * after a change of the right-hand side) the dual simplex restores primal
+ * feasibility first. Otherwise a composite phase 1 minimizes the sum of the
+ * negative basic values starting from that basis.
+ */
+public class SparseSimplexSolver implements LPSolver {
+	private static final double PRIMAL_TOL = 1e-9;
+	private static final double DUAL_TOL = 1e-9;
+	private static final double PIVOT_TOL = 1e-9;
+	private static final double DROP_TOL = 1e-14;
+	private static final double INFEASIBILITY_TOL = 1e-7;
+	private static final int DEGENERATE_LIMIT = 50;
+
+	private int refactorInterval = 100;
+	private int maxIterations = Integer.MAX_VALUE;
+
+	/**
+	 * Set number of basis updates between two refactorizations
+	 * @param refactorInterval number of pivots
+	 */
+	public void setRefactorInterval(int refactorInterval) {
+		assert refactorInterval > 0;
+		this.refactorInterval = refactorInterval;
+	}
+
+	/**
+	 * Set maximum number of simplex iterations
+	 * @param maxIterations iteration limit
+	 */
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	public LPResult solve(LinearProgram lp) {
+		return solve(lp, null);
+	}
+
+	public LPResult solve(LinearProgram lp, int[] basis) {
+		Simplex simplex = new Simplex(lp);
+		if(basis == null || !simplex.warmStart(basis)) {
+			simplex.initLogicalBasis();
+		}
+		simplex.run();
+		return simplex.result();
+	}
+
+	/**
+	 * State of one solve. Columns 0..n-1 are the structural variables, n+r is
+	 * the slack of row r and n+m+r is the artificial of row r.
+	 */
+	private class Simplex {
+		private final LinearProgram lp;
+		private final int m;
+		private final int n;
+
+		private final double[] rowSign;
+		private final double[] b;
+		private final double[] slackCoef;
+		private final int[] rowCount;
+
+		private final int[] head;
+		private final int[] position;
+		private final double[] xB;
+		private final double[] cost;
+		private final double[] y;
+		private final double[] rho;
+		private final SparseVector alpha;
+
+		private int nEta = 0;
+		private int nFactorEta = 0;
+		private int etaSinceRefactor = 0;
+		private final int[] etaOfRow;
+		private final int[] heap;
+		private int[] etaRow = new int[64];
+		private double[] etaPivot = new double[64];
+		private int[] etaStart = new int[65];
+		private int[] etaIndex = new int[256];
+		private double[] etaValue = new double[256];
+
+		private int phase = 1;
+		private int iterations = 0;
+		private int priceStart = 0;
+		private int degenerateSteps = 0;
+		private boolean bland = false;
+
+		public Simplex(LinearProgram lp) {
+			this.lp = lp;
+			this.m = lp.getNumRows();
+			this.n = lp.getNumColumns();
+
+			rowSign = new double[m];
+			b = new double[m];
+			slackCoef = new double[m];
+			for(int r=0; r<m; r++) {
+				rowSign[r] = lp.getRhs(r) < 0.0 ? -1.0 : 1.0;
+				b[r] = rowSign[r] * lp.getRhs(r);
+
+				Relationship rel = lp.getRelationship(r);
+				if(rel == Relationship.LEQ) {
+					slackCoef[r] = rowSign[r];
+				}
+				else if(rel == Relationship.GEQ) {
+					slackCoef[r] = -rowSign[r];
+				}
+			}
+
+			rowCount = new int[m];
+			for(int k=0; k<lp.getNumNonZeros(); k++) {
+				rowCount[lp.getEntryRow(k)]++;
+			}
+
+			head = new int[m];
+			position = new int[n+2*m];
+			xB = new double[m];
+			cost = new double[n+2*m];
+			y = new double[m];
+			rho = new double[m];
+			alpha = new SparseVector(m);
+			etaOfRow = new int[m];
+			heap = new int[m];
+		}
+
+		/**
+		 * Basis consisting of slacks where possible and artificials elsewhere
+		 */
+		public void initLogicalBasis() {
+			Arrays.fill(position, -1);
+			for(int r=0; r<m; r++) {
+				head[r] = slackCoef[r] == 1.0 ? n+r : n+m+r;
+				position[head[r]] = r;
+			}
+			reinvert();
+		}
+
+		/**
+		 * Install a basis and make it primal feasible
+		 * @param basis basis in the encoding of LPResult.getBasis
+		 * @return false if no feasible basis was reached from it
+		 */
+		public boolean warmStart(int[] basis) {
+			Arrays.fill(position, -1);
+			Arrays.fill(head, -1);
+
+			int count = 0;
+			for(int entry : basis) {
+				if(count == m) {
+					break;
+				}
+				if(entry >= n || -entry-1 >= m) {
+					continue;
+				}
+
+				int j = entry >= 0 ? entry : (slackCoef[-entry-1] != 0.0 ? n-entry-1 : n+m-entry-1);
+				if(position[j] < 0) {
+					head[count] = j;
+					position[j] = count;
+					count++;
+				}
+			}
+			reinvert();
+
+			setPhase(2);
+			if(primalInfeasibleRow() < 0) {
+				return true;
+			}
+
+			if(dualFeasible() && dualSimplex()) {
+				return true;
+			}
+			return compositePhase();
+		}
+
+		public void run() {
+			while(true) {
+				if(artificialSum() > INFEASIBILITY_TOL) {
+					setPhase(1);
+					iterate();
+
+					if(artificialSum() > INFEASIBILITY_TOL) {
+						throw new NoFeasibleSolutionException();
+					}
+				}
+
+				setPhase(2);
+				if(iterate()) {
+					break;
+				}
+			}
+		}
+
+		public LPResult result() {
+			reinvert();
+
+			double[] point = new double[n];
+			double value = 0.0;
+			for(int j=0; j<n; j++) {
+				if(position[j] >= 0) {
+					point[j] = Math.max(0.0, xB[position[j]]);
+					value += lp.getObjective(j) * point[j];
+				}
+			}
+
+			computeDuals();
+			double[] duals = new double[m];
+			int[] basis = new int[m];
+			for(int r=0; r<m; r++) {
+				duals[r] = rowSign[r] * y[r];
+				basis[r] = head[r] < n ? head[r] : -(logicalRow(head[r])+1);
+			}
+
+			return new LPResult(point, value, duals, basis, iterations);
+		}
+
+		/**
+		 * Run primal simplex iterations in the current phase
+		 * @return false if refactorization uncovered an infeasible basis
+		 */
+		private boolean iterate() {
+			while(true) {
+				if(iterations >= maxIterations) {
+					throw new TooManyIterationsException(maxIterations);
+				}
+
+				computeDuals();
+				int q = bland ? chooseEnteringBland() : chooseEntering();
+				if(q < 0) {
+					return true;
+				}
+
+				loadColumn(q, alpha);
+				ftran(alpha);
+
+				int p = bland ? ratioTestBland() : ratioTest();
+				if(p < 0) {
+					throw new UnboundedSolutionException();
+				}
+
+				double theta = stepLength(p);
+				pivot(p, q, theta);
+				iterations++;
+
+				if(theta < PRIMAL_TOL) {
+					degenerateSteps++;
+					bland = degenerateSteps > DEGENERATE_LIMIT;
+				}
+				else {
+					degenerateSteps = 0;
+					bland = false;
+				}
+
+				if(etaSinceRefactor >= refactorInterval) {
+					reinvert();
+
+					if(phase == 2 && artificialSum() > INFEASIBILITY_TOL) {
+						return false;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Dual simplex iterations in phase 2 on a dual feasible basis
+		 * @return true once the basis is primal feasible
+		 */
+		private boolean dualSimplex() {
+			int limit = iterations + 10*m + 100;
+			while(iterations < limit) {
+				if(iterations >= maxIterations) {
+					throw new TooManyIterationsException(maxIterations);
+				}
+
+				int p = primalInfeasibleRow();
+				if(p < 0) {
+					return true;
+				}
+				boolean belowLower = xB[p] < 0.0;
+
+				computeDuals();
+				Arrays.fill(rho, 0.0);
+				rho[p] = 1.0;
+				btran(rho);
+
+				// entering column keeps all reduced costs non-positive
+				int q = -1;
+				double bestRatio = Double.POSITIVE_INFINITY;
+				double bestAlpha = 0.0;
+				for(int j=0; j<n+m; j++) {
+					if(!canEnter(j)) {
+						continue;
+					}
+
+					double a = pivotRowEntry(j);
+					if(belowLower ? a < -PIVOT_TOL : a > PIVOT_TOL) {
+						double ratio = -Math.min(0.0, reducedCost(j)) / Math.abs(a);
+						if(ratio < bestRatio - DUAL_TOL || (ratio <= bestRatio + DUAL_TOL && Math.abs(a) > bestAlpha)) {
+							bestRatio = Math.min(bestRatio, ratio);
+							bestAlpha = Math.abs(a);
+							q = j;
+						}
+					}
+				}
+
+				if(q < 0) {
+					return false;
+				}
+
+				loadColumn(q, alpha);
+				ftran(alpha);
+				pivot(p, q, xB[p] / alpha.value[p]);
+				iterations++;
+
+				if(etaSinceRefactor >= refactorInterval) {
+					reinvert();
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Primal phase 1 on the installed basis that maximizes the sum of the
+		 * negative basic values. Basic variables only block at zero from the
+		 * side they are on, so feasible ones stay feasible. Artificials that
+		 * end up positive are left to the regular phase 1.
+		 * @return false if the phase stalled or found no improving column
+		 */
+		private boolean compositePhase() {
+			Arrays.fill(cost, 0.0);
+			degenerateSteps = 0;
+			bland = false;
+
+			while(true) {
+				if(iterations >= maxIterations) {
+					throw new TooManyIterationsException(maxIterations);
+				}
+
+				boolean infeasible = false;
+				for(int r=0; r<m; r++) {
+					boolean negative = xB[r] < -PRIMAL_TOL;
+					cost[head[r]] = negative ? 1.0 : 0.0;
+					infeasible |= negative;
+				}
+				if(!infeasible) {
+					return true;
+				}
+
+				computeDuals();
+				int q = chooseEntering();
+				if(q < 0) {
+					return false;
+				}
+
+				loadColumn(q, alpha);
+				ftran(alpha);
+
+				int p = compositeRatioTest();
+				if(p < 0) {
+					return false;
+				}
+
+				double theta = Math.max(0.0, xB[p] / alpha.value[p]);
+				cost[head[p]] = 0.0;
+				pivot(p, q, theta);
+				iterations++;
+
+				if(theta >= PRIMAL_TOL) {
+					degenerateSteps = 0;
+				}
+				else if(++degenerateSteps > DEGENERATE_LIMIT) {
+					return false;
+				}
+
+				if(etaSinceRefactor >= refactorInterval) {
+					reinvert();
+				}
+			}
+		}
+
+		/**
+		 * Harris ratio test of the composite phase, feasible variables block
+		 * when they decrease to zero and negative ones when they increase to it
+		 * @return leaving basis position or -1 if nothing blocks
+		 */
+		private int compositeRatioTest() {
+			double thetaMax = Double.POSITIVE_INFINITY;
+			for(int t=0; t<alpha.nnz; t++) {
+				int i = alpha.index[t];
+				double a = alpha.value[i];
+				boolean negative = xB[i] < -PRIMAL_TOL;
+				if(a > PIVOT_TOL && !negative) {
+					thetaMax = Math.min(thetaMax, (xB[i] + PRIMAL_TOL) / a);
+				}
+				else if(a < -PIVOT_TOL && negative) {
+					thetaMax = Math.min(thetaMax, (xB[i] - PRIMAL_TOL) / a);
+				}
+			}
+
+			if(thetaMax == Double.POSITIVE_INFINITY) {
+				return -1;
+			}
+
+			int p = -1;
+			double bestPivot = 0.0;
+			for(int t=0; t<alpha.nnz; t++) {
+				int i = alpha.index[t];
+				double a = alpha.value[i];
+				boolean negative = xB[i] < -PRIMAL_TOL;
+				if((a > PIVOT_TOL && !negative) || (a < -PIVOT_TOL && negative)) {
+					if(xB[i] / a <= thetaMax && Math.abs(a) > bestPivot) {
+						bestPivot = Math.abs(a);
+						p = i;
+					}
+				}
+			}
+			return p;
+		}
+
+		/**
+		 * Find the basic variable that violates its bounds the most
+		 * @return basis position or -1 if the basis is primal feasible
+		 */
+		private int primalInfeasibleRow() {
+			int p = -1;
+			double worst = PRIMAL_TOL;
+			for(int r=0; r<m; r++) {
+				double violation = xB[r] < 0.0 ? -xB[r] : xB[r] - upperBound(head[r]);
+				if(violation > worst) {
+					worst = violation;
+					p = r;
+				}
+			}
+			return p;
+		}
+
+		private boolean dualFeasible() {
+			computeDuals();
+			for(int j=0; j<n+m; j++) {
+				if(canEnter(j) && reducedCost(j) > INFEASIBILITY_TOL) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Entry of column j in the row of B^-1 A stored in rho
+		 */
+		private double pivotRowEntry(int j) {
+			if(j < n) {
+				double a = 0.0;
+				for(int k=lp.getColumnStart(j); k<lp.getColumnEnd(j); k++) {
+					int r = lp.getEntryRow(k);
+					a += rho[r] * rowSign[r] * lp.getEntryValue(k);
+				}
+				return a;
+			}
+			return rho[j-n] * slackCoef[j-n];
+		}
+
+		private void setPhase(int phase) {
+			this.phase = phase;
+			Arrays.fill(cost, 0.0);
+
+			if(phase == 1) {
+				for(int r=0; r<m; r++) {
+					cost[n+m+r] = -1.0;
+				}
+			}
+			else {
+				for(int j=0; j<n; j++) {
+					cost[j] = lp.getObjective(j);
+				}
+			}
+
+			degenerateSteps = 0;
+			bland = false;
+		}
+
+		private double artificialSum() {
+			double sum = 0.0;
+			for(int r=0; r<m; r++) {
+				if(head[r] >= n+m) {
+					sum += Math.abs(xB[r]);
+				}
+			}
+			return sum;
+		}
+
+		private boolean isArtificial(int j) {
+			return j >= n+m;
+		}
+
+		private int logicalRow(int j) {
+			return j < n+m ? j-n : j-n-m;
+		}
+
+		private void computeDuals() {
+			for(int r=0; r<m; r++) {
+				y[r] = cost[head[r]];
+			}
+			btran(y);
+		}
+
+		private double reducedCost(int j) {
+			if(j < n) {
+				double d = cost[j];
+				for(int k=lp.getColumnStart(j); k<lp.getColumnEnd(j); k++) {
+					int r = lp.getEntryRow(k);
+					d -= y[r] * rowSign[r] * lp.getEntryValue(k);
+				}
+				return d;
+			}
+
+			int r = logicalRow(j);
+			return cost[j] - y[r] * (j < n+m ? slackCoef[r] : 1.0);
+		}
+
+		private boolean canEnter(int j) {
+			return position[j] < 0 && (j < n || slackCoef[j-n] != 0.0);
+		}
+
+		/**
+		 * Partial Dantzig pricing over structurals and slacks
+		 * @return entering column or -1 if optimal
+		 */
+		private int chooseEntering() {
+			int total = n+m;
+			int segment = Math.max(512, total/64);
+			int best = -1;
+			double bestD = DUAL_TOL;
+
+			int j = priceStart;
+			for(int scanned=1; scanned<=total; scanned++) {
+				if(canEnter(j)) {
+					double d = reducedCost(j);
+					if(d > bestD) {
+						bestD = d;
+						best = j;
+					}
+				}
+
+				j = (j+1) % total;
+				if(best >= 0 && scanned % segment == 0) {
+					break;
+				}
+			}
+
+			priceStart = j;
+			return best;
+		}
+
+		private int chooseEnteringBland() {
+			for(int j=0; j<n+m; j++) {
+				if(canEnter(j) && reducedCost(j) > DUAL_TOL) {
+					return j;
+				}
+			}
+			return -1;
+		}
+
+		private double upperBound(int j) {
+			return phase == 2 && isArtificial(j) ? 0.0 : Double.POSITIVE_INFINITY;
+		}
+
+		/**
+		 * Two-pass ratio test of Harris, prefers large pivots among near ties
+		 * @return leaving basis position or -1 if unbounded
+		 */
+		private int ratioTest() {
+			double thetaMax = Double.POSITIVE_INFINITY;
+			for(int t=0; t<alpha.nnz; t++) {
+				int i = alpha.index[t];
+				double a = alpha.value[i];
+				if(a > PIVOT_TOL) {
+					thetaMax = Math.min(thetaMax, (xB[i] + PRIMAL_TOL) / a);
+				}
+				else if(a < -PIVOT_TOL && upperBound(head[i]) < Double.POSITIVE_INFINITY) {
+					thetaMax = Math.min(thetaMax, (upperBound(head[i]) - xB[i] + PRIMAL_TOL) / -a);
+				}
+			}
+
+			if(thetaMax == Double.POSITIVE_INFINITY) {
+				return -1;
+			}
+
+			int p = -1;
+			double bestPivot = 0.0;
+			for(int t=0; t<alpha.nnz; t++) {
+				int i = alpha.index[t];
+				double a = alpha.value[i];
+				double ratio;
+				if(a > PIVOT_TOL) {
+					ratio = xB[i] / a;
+				}
+				else if(a < -PIVOT_TOL && upperBound(head[i]) < Double.POSITIVE_INFINITY) {
+					ratio = (upperBound(head[i]) - xB[i]) / -a;
+				}
+				else {
+					continue;
+				}
+
+				if(ratio <= thetaMax && Math.abs(a) > bestPivot) {
+					bestPivot = Math.abs(a);
+					p = i;
+				}
+			}
+			return p;
+		}
+
+		private int ratioTestBland() {
+			int p = -1;
+			double bestRatio = Double.POSITIVE_INFINITY;
+			for(int t=0; t<alpha.nnz; t++) {
+				int i = alpha.index[t];
+				double a = alpha.value[i];
+				double ratio;
+				if(a > PIVOT_TOL) {
+					ratio = Math.max(0.0, xB[i]) / a;
+				}
+				else if(a < -PIVOT_TOL && upperBound(head[i]) < Double.POSITIVE_INFINITY) {
+					ratio = Math.max(0.0, upperBound(head[i]) - xB[i]) / -a;
+				}
+				else {
+					continue;
+				}
+
+				if(ratio < bestRatio - PRIMAL_TOL || (ratio <= bestRatio + PRIMAL_TOL && head[i] < head[p])) {
+					bestRatio = Math.min(bestRatio, ratio);
+					p = i;
+				}
+			}
+			return p;
+		}
+
+		private double stepLength(int p) {
+			double a = alpha.value[p];
+			double theta = a > 0.0 ? xB[p] / a : (upperBound(head[p]) - xB[p]) / -a;
+			return Math.max(0.0, theta);
+		}
+
+		private void pivot(int p, int q, double theta) {
+			for(int t=0; t<alpha.nnz; t++) {
+				int i = alpha.index[t];
+				xB[i] -= theta * alpha.value[i];
+			}
+			xB[p] = theta;
+
+			position[head[p]] = -1;
+			head[p] = q;
+			position[q] = p;
+
+			addEta(p, alpha);
+			etaSinceRefactor++;
+		}
+
+		/**
+		 * Rebuild the eta file from the identity for the current basis and
+		 * recompute the basic solution
+		 */
+		private void reinvert() {
+			nEta = 0;
+			nFactorEta = 0;
+			etaSinceRefactor = 0;
+			Arrays.fill(etaOfRow, -1);
+
+			int[] basic = head.clone();
+			Arrays.fill(head, -1);
+			for(int j : basic) {
+				if(j >= 0) {
+					position[j] = -1;
+				}
+			}
+
+			// unit columns keep their identity position
+			for(int j : basic) {
+				if(j >= n) {
+					int r = logicalRow(j);
+					if(head[r] < 0) {
+						head[r] = j;
+						position[j] = r;
+
+						if(!isArtificial(j) && slackCoef[r] != 1.0) {
+							alpha.clear();
+							alpha.set(r, slackCoef[r]);
+							addFactorEta(r, alpha);
+						}
+					}
+				}
+			}
+
+			for(int j : basic) {
+				if(j < 0 || j >= n) {
+					continue;
+				}
+
+				loadColumn(j, alpha);
+				ftran(alpha);
+
+				double maxAbs = 0.0;
+				for(int t=0; t<alpha.nnz; t++) {
+					int i = alpha.index[t];
+					if(head[i] < 0) {
+						maxAbs = Math.max(maxAbs, Math.abs(alpha.value[i]));
+					}
+				}
+
+				if(maxAbs < PIVOT_TOL) {
+					continue;
+				}
+
+				int p = -1;
+				for(int t=0; t<alpha.nnz; t++) {
+					int i = alpha.index[t];
+					if(head[i] < 0 && Math.abs(alpha.value[i]) >= 0.1 * maxAbs) {
+						if(p < 0 || rowCount[i] < rowCount[p] || (rowCount[i] == rowCount[p] && Math.abs(alpha.value[i]) > Math.abs(alpha.value[p]))) {
+							p = i;
+						}
+					}
+				}
+
+				head[p] = j;
+				position[j] = p;
+				addFactorEta(p, alpha);
+			}
+
+			// singular columns are replaced by artificials
+			for(int r=0; r<m; r++) {
+				if(head[r] < 0) {
+					head[r] = n+m+r;
+					position[n+m+r] = r;
+				}
+			}
+
+			alpha.clear();
+			for(int r=0; r<m; r++) {
+				if(b[r] != 0.0) {
+					alpha.set(r, b[r]);
+				}
+			}
+			ftran(alpha);
+
+			Arrays.fill(xB, 0.0);
+			for(int t=0; t<alpha.nnz; t++) {
+				int i = alpha.index[t];
+				xB[i] = alpha.value[i];
+			}
+		}
+
+		private void loadColumn(int j, SparseVector v) {
+			v.clear();
+			if(j < n) {
+				for(int k=lp.getColumnStart(j); k<lp.getColumnEnd(j); k++) {
+					int r = lp.getEntryRow(k);
+					v.set(r, rowSign[r] * lp.getEntryValue(k));
+				}
+			}
+			else {
+				int r = logicalRow(j);
+				v.set(r, j < n+m ? slackCoef[r] : 1.0);
+			}
+		}
+
+		private void addFactorEta(int p, SparseVector v) {
+			etaOfRow[p] = nEta;
+			addEta(p, v);
+			nFactorEta = nEta;
+		}
+
+		private void addEta(int p, SparseVector v) {
+			if(nEta == etaRow.length) {
+				etaRow = Arrays.copyOf(etaRow, 2*nEta);
+				etaPivot = Arrays.copyOf(etaPivot, 2*nEta);
+				etaStart = Arrays.copyOf(etaStart, 2*nEta+1);
+			}
+
+			int start = etaStart[nEta];
+			if(start + v.nnz > etaIndex.length) {
+				int capacity = Math.max(2*etaIndex.length, start + v.nnz);
+				etaIndex = Arrays.copyOf(etaIndex, capacity);
+				etaValue = Arrays.copyOf(etaValue, capacity);
+			}
+
+			int end = start;
+			for(int t=0; t<v.nnz; t++) {
+				int i = v.index[t];
+				if(i != p && Math.abs(v.value[i]) > DROP_TOL) {
+					etaIndex[end] = i;
+					etaValue[end] = v.value[i];
+					end++;
+				}
+			}
+
+			etaRow[nEta] = p;
+			etaPivot[nEta] = v.value[p];
+			etaStart[nEta+1] = end;
+			nEta++;
+		}
+
+		/**
+		 * Compute B^-1 v in place
+		 */
+		private void ftran(SparseVector v) {
+			// factor etas in creation order, starting from the non-zero rows
+			int heapSize = 0;
+			for(int t=0; t<v.nnz; t++) {
+				int k = etaOfRow[v.index[t]];
+				if(k >= 0) {
+					heapSize = heapPush(heapSize, k);
+				}
+			}
+
+			while(heapSize > 0) {
+				int k = heap[0];
+				heapSize = heapPop(heapSize);
+
+				int p = etaRow[k];
+				double vp = v.value[p];
+				if(vp == 0.0) {
+					continue;
+				}
+
+				vp /= etaPivot[k];
+				v.value[p] = vp;
+				for(int t=etaStart[k]; t<etaStart[k+1]; t++) {
+					int i = etaIndex[t];
+					if(!v.contains(i) && etaOfRow[i] > k) {
+						heapSize = heapPush(heapSize, etaOfRow[i]);
+					}
+					v.add(i, -etaValue[t] * vp);
+				}
+			}
+
+			// etas of the basis updates since the last refactorization
+			for(int k=nFactorEta; k<nEta; k++) {
+				int p = etaRow[k];
+				double vp = v.value[p];
+				if(vp == 0.0) {
+					continue;
+				}
+
+				vp /= etaPivot[k];
+				v.value[p] = vp;
+				for(int t=etaStart[k]; t<etaStart[k+1]; t++) {
+					v.add(etaIndex[t], -etaValue[t] * vp);
+				}
+			}
+		}
+
+		private int heapPush(int size, int k) {
+			int i = size;
+			while(i > 0 && heap[(i-1)/2] > k) {
+				heap[i] = heap[(i-1)/2];
+				i = (i-1)/2;
+			}
+			heap[i] = k;
+			return size+1;
+		}
+
+		private int heapPop(int size) {
+			int last = heap[--size];
+			int i = 0;
+			while(2*i+1 < size) {
+				int c = 2*i+1;
+				if(c+1 < size && heap[c+1] < heap[c]) {
+					c++;
+				}
+				if(heap[c] >= last) {
+					break;
+				}
+				heap[i] = heap[c];
+				i = c;
+			}
+			heap[i] = last;
+			return size;
+		}
+
+		/**
+		 * Compute v' B^-1 in place
+		 */
+		private void btran(double[] v) {
+			for(int k=nEta-1; k>=0; k--) {
+				int p = etaRow[k];
+				double vp = v[p];
+				for(int t=etaStart[k]; t<etaStart[k+1]; t++) {
+					vp -= etaValue[t] * v[etaIndex[t]];
+				}
+				v[p] = vp / etaPivot[k];
+			}
+		}
+	}
+
+	/**
+	 * Dense value array with a list of the positions that may be non-zero
+	 */
+	private static class SparseVector {
+		public final double[] value;
+		public final int[] index;
+		private final boolean[] marked;
+		public int nnz = 0;
+
+		public SparseVector(int size) {
+			value = new double[size];
+			index = new int[size];
+			marked = new boolean[size];
+		}
+
+		public void clear() {
+			for(int t=0; t<nnz; t++) {
+				value[index[t]] = 0.0;
+				marked[index[t]] = false;
+			}
+			nnz = 0;
+		}
+
+		public void set(int i, double v) {
+			if(!marked[i]) {
+				marked[i] = true;
+				index[nnz++] = i;
+			}
+			value[i] = v;
+		}
+
+		public boolean contains(int i) {
+			return marked[i];
+		}
+
+		public void add(int i, double v) {
+			if(!marked[i]) {
+				marked[i] = true;
+				index[nnz++] = i;
+			}
+			value[i] += v;
+		}
+	}
+}
@@ -0,0 +1,342 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+
+/**
+ * Seeded generator of random sparse CMDPs for scaling tests. Every (s,a)
+ * moves to a fixed number of distinct random successors and, with a
+ * termination probability, to one of the absorbing states at the end of the
+ * state range. Absorbing states loop to themselves without reward or cost.
+ * The same seed and settings always give the same models.
+ */
+public class SyntheticModelGenerator {
+	private final int nStates;
+	private final int nActions;
+	private final int branching;
+	private final double discountFactor;
+	private final long seed;
+
+	private int nAbsorbing = 1;
+	private double terminationProbability = 0.05;
+	private ValueDistribution rewards = ValueDistribution.sparse(0.05, ValueDistribution.uniform(0.0, 100.0));
+	private ValueDistribution costs = ValueDistribution.actionIndex(1.0);
+
+	/**
+	 * Create a generator
+	 * @param nStates number of states, including absorbing states
+	 * @param nActions number of actions
+	 * @param branching number of random successors of each (s,a)
+	 * @param discountFactor discount factor of the models
+	 * @param seed seed of all random choices
+	 */
+	public SyntheticModelGenerator(int nStates, int nActions, int branching, double discountFactor, long seed) {
+		if(nStates < 2 || nActions < 1 || branching < 1 || branching > nStates) {
+			throw new IllegalArgumentException("Invalid model size: "+nStates+" states, "+nActions+" actions, branching "+branching);
+		}
+		this.nStates = nStates;
+		this.nActions = nActions;
+		this.branching = branching;
+		this.discountFactor = discountFactor;
+		this.seed = seed;
+	}
+
+	/**
+	 * Set the number of absorbing states, 0 for none
+	 * @param nAbsorbing absorbing states, taken from the end of the state range
+	 */
+	public void setAbsorbingStates(int nAbsorbing) {
+		if(nAbsorbing < 0 || nAbsorbing >= nStates) {
+			throw new IllegalArgumentException("Invalid number of absorbing states: "+nAbsorbing);
+		}
+		this.nAbsorbing = nAbsorbing;
+	}
+
+	/**
+	 * Set the probability of moving to an absorbing state in each step
+	 * @param terminationProbability probability in [0,1), ignored without absorbing states
+	 */
+	public void setTerminationProbability(double terminationProbability) {
+		if(!(terminationProbability >= 0.0 && terminationProbability < 1.0)) {
+			throw new IllegalArgumentException("Invalid termination probability: "+terminationProbability);
+		}
+		this.terminationProbability = terminationProbability;
+	}
+
+	public void setRewardDistribution(ValueDistribution rewards) {
+		this.rewards = rewards;
+	}
+
+	public void setCostDistribution(ValueDistribution costs) {
+		this.costs = costs;
+	}
+
+	/**
+	 * Generate one model, initial state 0
+	 * @return model
+	 */
+	public CMDP generate() {
+		return generate(new SplittableRandom(seed));
+	}
+
+	/**
+	 * Generate agents of different types. Each type is a model with its own
+	 * random transitions, rewards and costs, the number of agents per type
+	 * follows a Zipf distribution. Agents of a type are copies of one model.
+	 * @param nTypes number of types
+	 * @param nAgents number of agents
+	 * @return agents ordered by type
+	 */
+	public CMDP[] generatePopulation(int nTypes, int nAgents) {
+		int[] counts = typeCounts(nTypes, nAgents);
+		SplittableRandom random = new SplittableRandom(seed);
+
+		CMDP[] cmdps = new CMDP[nAgents];
+		int i = 0;
+		for(int t=0; t<nTypes; t++) {
+			SplittableRandom typeRandom = random.split();
+			if(counts[t] > 0) {
+				CMDP type = generate(typeRandom);
+				for(int k=0; k<counts[t]; k++) {
+					cmdps[i++] = type.copy();
+				}
+			}
+		}
+		return cmdps;
+	}
+
+	/**
+	 * Generate the types of generatePopulation one at a time and write each to
+	 * its own file, so that populations larger than memory can be produced.
+	 * The directory receives population.txt with one line "file count" per type.
+	 * @param directory target directory, created if needed
+	 * @param nTypes number of types
+	 * @param nAgents number of agents
+	 * @param binary write the model files in BinaryModelFormat instead of the text format
+	 * @return the index file
+	 */
+	public String writePopulation(String directory, int nTypes, int nAgents, boolean binary) {
+		File dir = new File(directory);
+		if(!dir.isDirectory() && !dir.mkdirs()) {
+			throw new RuntimeException("Cannot create directory " + directory);
+		}
+
+		int[] counts = typeCounts(nTypes, nAgents);
+		SplittableRandom random = new SplittableRandom(seed);
+		File index = new File(dir, "population.txt");
+
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(index))) {
+			for(int t=0; t<nTypes; t++) {
+				SplittableRandom typeRandom = random.split();
+				if(counts[t] > 0) {
+					String fileName = "type" + t + (binary ? ".bin" : ".txt");
+					String path = new File(dir, fileName).getPath();
+					CMDP type = generate(typeRandom);
+					if(binary) {
+						BinaryModelFormat.write(type, path);
+					}
+					else {
+						UserGenerator.write(type, path);
+					}
+					writer.write(fileName + " " + counts[t] + "\n");
+				}
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+
+		return index.getPath();
+	}
+
+	/**
+	 * Read a population written by writePopulation
+	 * @param indexFile population.txt
+	 * @return agents ordered by type, agents of a type are copies of one model
+	 */
+	public static CMDP[] readPopulation(String indexFile) {
+		File dir = new File(indexFile).getParentFile();
+		List<CMDP> cmdps = new ArrayList<CMDP>();
+
+		try (BufferedReader reader = new BufferedReader(new FileReader(indexFile))) {
+			String line;
+			while((line = reader.readLine()) != null) {
+				line = line.trim();
+				if(line.isEmpty()) {
+					continue;
+				}
+				String[] parts = line.split("\\s+");
+				String path = new File(dir, parts[0]).getPath();
+				int count = Integer.parseInt(parts[1]);
+
+				CMDP type = path.endsWith(".bin") ? BinaryModelFormat.read(path) : UserGenerator.load(path);
+				for(int k=0; k<count; k++) {
+					cmdps.add(type.copy());
+				}
+			}
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+
+		return cmdps.toArray(new CMDP[cmdps.size()]);
+	}
+
+	/**
+	 * Draw the number of agents of each type, type t has weight 1/(t+1)
+	 */
+	private int[] typeCounts(int nTypes, int nAgents) {
+		double[] weights = new double[nTypes];
+		for(int t=0; t<nTypes; t++) {
+			weights[t] = 1.0 / (t+1);
+		}
+
+		// separate stream from the one that generates the types
+		SplittableRandom random = new SplittableRandom(~seed);
+		DiscreteSampler sampler = DiscreteSampler.of(weights);
+		int[] counts = new int[nTypes];
+		for(int i=0; i<nAgents; i++) {
+			counts[sampler.sample(random.nextDouble())]++;
+		}
+		return counts;
+	}
+
+	private CMDP generate(SplittableRandom random) {
+		int nTransient = nStates - nAbsorbing;
+		boolean terminates = nAbsorbing > 0 && terminationProbability > 0.0;
+		int rowLength = branching + (terminates ? 1 : 0);
+
+		int[] start = new int[nStates*nActions+1];
+		int[] successors = new int[nStates*nActions*rowLength];
+		double[] probabilities = new double[successors.length];
+		double[] rewardValues = new double[nStates*nActions];
+		double[] costValues = new double[nStates*nActions];
+
+		int k = 0;
+		for(int s=0; s<nStates; s++) {
+			for(int a=0; a<nActions; a++) {
+				int sa = s*nActions+a;
+
+				if(s >= nTransient) {
+					successors[k] = s;
+					probabilities[k] = 1.0;
+					k++;
+				}
+				else {
+					int rowStart = k;
+
+					// distinct successors with random weights
+					double total = 0.0;
+					while(k - rowStart < branching) {
+						int sNext = random.nextInt(nStates);
+						if(indexOf(successors, rowStart, k, sNext) < 0) {
+							successors[k] = sNext;
+							probabilities[k] = -Math.log(1.0 - random.nextDouble());
+							total += probabilities[k];
+							k++;
+						}
+					}
+					double scale = (terminates ? 1.0 - terminationProbability : 1.0) / total;
+					for(int j=rowStart; j<k; j++) {
+						probabilities[j] *= scale;
+					}
+
+					if(terminates) {
+						int absorbing = nTransient + random.nextInt(nAbsorbing);
+						int j = indexOf(successors, rowStart, k, absorbing);
+						if(j >= 0) {
+							probabilities[j] += terminationProbability;
+						}
+						else {
+							successors[k] = absorbing;
+							probabilities[k] = terminationProbability;
+							k++;
+						}
+					}
+
+					sortRow(successors, probabilities, rowStart, k);
+					rewardValues[sa] = rewards.sample(s, a, random);
+					costValues[sa] = costs.sample(s, a, random);
+				}
+
+				start[sa+1] = k;
+			}
+		}
+
+		CMDP cmdp = new CMDP(nStates, nActions, 0, discountFactor, costValues);
+		cmdp.setRewards(rewardValues);
+		if(k < successors.length) {
+			successors = Arrays.copyOf(successors, k);
+			probabilities = Arrays.copyOf(probabilities, k);
+		}
+		cmdp.setTransitions(start, successors, probabilities);
+		return cmdp;
+	}
+
+	private static int indexOf(int[] values, int from, int to, int value) {
+		for(int j=from; j<to; j++) {
+			if(values[j] == value) {
+				return j;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Insertion sort of a row by successor state, rows are short
+	 */
+	private static void sortRow(int[] successors, double[] probabilities, int from, int to) {
+		for(int i=from+1; i<to; i++) {
+			int state = successors[i];
+			double probability = probabilities[i];
+			int j = i;
+			while(j > from && successors[j-1] > state) {
+				successors[j] = successors[j-1];
+				probabilities[j] = probabilities[j-1];
+				j--;
+			}
+			successors[j] = state;
+			probabilities[j] = probability;
+		}
+	}
+
+	/**
+	 * Distribution of the reward or cost of a state-action pair
+	 */
+	public interface ValueDistribution {
+		public double sample(int s, int a, SplittableRandom random);
+
+		public static ValueDistribution constant(double value) {
+			return (s, a, random) -> value;
+		}
+
+		public static ValueDistribution uniform(double min, double max) {
+			return (s, a, random) -> min + (max - min) * random.nextDouble();
+		}
+
+		public static ValueDistribution exponential(double mean) {
+			return (s, a, random) -> -mean * Math.log(1.0 - random.nextDouble());
+		}
+
+		/**
+		 * Value scale*a, as the action costs in Homework
+		 */
+		public static ValueDistribution actionIndex(double scale) {
+			return (s, a, random) -> scale * a;
+		}
+
+		/**
+		 * Non-zero on a fraction of the pairs
+		 * @param density probability that a pair has a value
+		 * @param values distribution of the non-zero values
+		 */
+		public static ValueDistribution sparse(double density, ValueDistribution values) {
+			return (s, a, random) -> random.nextDouble() < density ? values.sample(s, a, random) : 0.0;
+		}
+	}
+}
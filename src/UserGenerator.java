@@ -1,171 +1,270 @@
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Arrays;
 
 
+/**
+ * Builds user models from synthetic_ad.txt. The file is parsed once into a
+ * cached base model from which child and adult prototypes are derived. Every
+ * user is a copy-on-write copy of a prototype, so users share transitions,
+ * rewards and costs until they change them. Other model files are parsed on
+ * every load and not cached.
+ */
 public class UserGenerator {
-	
+	private static final String MODEL_FILE = "synthetic_ad.txt";
+	private static final double USER_DISCOUNT = 0.95;
+
+	private static BaseModel baseModel = null;
+	private static CMDP childPrototype = null;
+	private static CMDP adultPrototype = null;
+
 	public static CMDP getCMDPChild() {
-		CMDP cmdp = null;
-		int[][][] Tstate;
-		double[][][] Tprob;
-		
-		BufferedReader reader = null;
-		try {
-			reader = new BufferedReader(new FileReader("synthetic_ad.txt"));
+		synchronized(UserGenerator.class) {
+			if(childPrototype == null) {
+				BaseModel base = getBaseModel();
+				childPrototype = userModel(base, base.successorStart, base.successorState, base.successorProbability, 200.0);
+			}
+			return childPrototype.copy();
+		}
+	}
 
-			int initialState = 0;
-			int numStates = Integer.valueOf(reader.readLine());
-			int numActions = Integer.valueOf(reader.readLine());
+	public static CMDP getCMDPAdult() {
+		synchronized(UserGenerator.class) {
+			if(adultPrototype == null) {
+				BaseModel base = getBaseModel();
 
-			double[][] costFunction = new double[numStates][numActions];
-			Tstate = new int[numStates][numActions][];
-			Tprob = new double[numStates][numActions][];
-			
-			double[][] rewardFunction = new double[numStates][numActions];
-			double[][][] transitionFunction = new double[numStates][numActions][numStates];
+				// adults stay longer in state 7
+				Transitions adult = deriveSelfLoop(base, 7, 0.7);
+				adultPrototype = userModel(base, adult.successorStart, adult.successorState, adult.successorProbability, 1000.0);
+			}
+			return adultPrototype.copy();
+		}
+	}
 
-			// discount factor, unused
-			reader.readLine();
+	/**
+	 * Load a model with the discount factor, rewards and costs given in the
+	 * file. The file is read again on every call.
+	 * @param fileName model file in the text format of synthetic_ad.txt
+	 * @return model with initial state 0
+	 */
+	public static CMDP load(String fileName) {
+		BaseModel base = parse(fileName);
 
-			// repeated action description.
-			for (int a = 0; a < numActions; a++) {
-				int actionID = Integer.valueOf(reader.readLine());
-				
-				if (a != actionID) {
-					throw new RuntimeException("Unexpected action ID (" + a + " != " + actionID + ").");
-				}
-				
-				// define reward
-				rewardFunction[9][a] = 200.0;
+		double[][] costFunction = new double[base.numStates][];
+		double[][] rewardFunction = new double[base.numStates][];
+		for(int s=0; s<base.numStates; s++) {
+			costFunction[s] = base.costs[s].clone();
+			rewardFunction[s] = base.rewards[s].clone();
+		}
 
-				String[] chunks = null;
-				for (int s = 0; s < numStates; s++) {
-					chunks = reader.readLine().split(" ");
+		CMDP cmdp = new CMDP(base.numStates, base.numActions, 0, base.discountFactor, costFunction);
+		cmdp.setRewardFunction(rewardFunction);
+		cmdp.setTransitions(base.successorStart, base.successorState, base.successorProbability);
+		return cmdp;
+	}
 
-					int stateID = Integer.valueOf(chunks[0]);
-					if (s != stateID) {
-						throw new RuntimeException("Unexpected state ID (" + s + " != " + stateID + ").");
-					}
+	/**
+	 * Write a model in the text format of synthetic_ad.txt, the initial state is not stored
+	 * @param cmdp model with a single resource
+	 * @param fileName target file, replaced if it exists
+	 */
+	public static void write(CMDP cmdp, String fileName) {
+		if(cmdp.getNumResources() != 1) {
+			throw new IllegalArgumentException("The text format holds a single cost function, use BinaryModelFormat for " + cmdp.getNumResources() + " resources");
+		}
+		int nStates = cmdp.getNumStates();
+		int nActions = cmdp.getNumActions();
+		int[] start = cmdp.getSuccessorStarts();
+		int[] successor = cmdp.getSuccessorStates();
+		double[] probability = cmdp.getSuccessorProbabilities();
+		double[] rewards = cmdp.getRewards();
+		double[] costs = cmdp.getCosts();
 
-					int numDests = (chunks.length-1)/2;
-					Tstate[s][a] = new int[numDests];
-					Tprob[s][a] = new double[numDests];
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
+			StringBuilder line = new StringBuilder();
+			writer.write(nStates + "\n" + nActions + "\nDiscount " + cmdp.getDiscountFactor() + "\n");
 
-					for (int i = 0; i < numDests; i++) {
-						int sNext = Integer.valueOf(chunks[1+(i*2)].substring(1));
-						double prob = Double.valueOf(chunks[2+(i*2)].substring(0, chunks[2+(i*2)].length()-1));
+			for(int a=0; a<nActions; a++) {
+				writer.write(a + "\n");
 
-						Tstate[s][a][i] = sNext;
-						Tprob[s][a][i] = prob;
-						
-						transitionFunction[s][a][sNext] = prob;
+				for(int s=0; s<nStates; s++) {
+					line.setLength(0);
+					line.append(s);
+					int sa = s*nActions+a;
+					for(int j=start[sa]; j<start[sa+1]; j++) {
+						line.append(" (").append(successor[j]).append(' ').append(probability[j]).append(')');
 					}
+					writer.write(line.append('\n').toString());
 				}
 
-				// Rewards, unused.
-				reader.readLine();
-
-				// Resource costs, unused.
-				reader.readLine();
-				
+				writer.write(sparseLine("reward", rewards, a, nStates, nActions, line));
+				writer.write(sparseLine("cost", costs, a, nStates, nActions, line));
 			}
-			
-			cmdp = new CMDP(numStates, numActions, initialState, 0.95, costFunction);
-			cmdp.setRewardFunction(rewardFunction);
-			cmdp.setTransitionFunction(transitionFunction);
 		} catch (IOException ex) {
 			throw new RuntimeException(ex);
-		} finally {
-			if (reader != null) {
-				try {
-					reader.close();
-				} catch (IOException e) { }
+		}
+	}
+
+	/**
+	 * Format the non-zero values of action a as "name (s v) ..."
+	 */
+	private static String sparseLine(String name, double[] values, int a, int nStates, int nActions, StringBuilder line) {
+		line.setLength(0);
+		line.append(name);
+		for(int s=0; s<nStates; s++) {
+			double v = values[s*nActions+a];
+			if(v != 0.0) {
+				line.append(" (").append(s).append(' ').append(v).append(')');
 			}
 		}
-		
+		return line.append('\n').toString();
+	}
+
+	/**
+	 * User model with zero costs and reward at the conversion state 9
+	 */
+	private static CMDP userModel(BaseModel base, int[] successorStart, int[] successorState, double[] successorProbability, double conversionReward) {
+		double[][] costFunction = new double[base.numStates][base.numActions];
+		double[][] rewardFunction = new double[base.numStates][base.numActions];
+		for(int a=0; a<base.numActions; a++) {
+			rewardFunction[9][a] = conversionReward;
+		}
+
+		CMDP cmdp = new CMDP(base.numStates, base.numActions, 0, USER_DISCOUNT, costFunction);
+		cmdp.setRewardFunction(rewardFunction);
+		cmdp.setTransitions(successorStart, successorState, successorProbability);
 		return cmdp;
 	}
-	
-	public static CMDP getCMDPAdult() {
-		CMDP cmdp = null;
-		int[][][] Tstate;
-		double[][][] Tprob;
-		
+
+	/**
+	 * Add probability mass to the self-loop of a state and renormalize
+	 */
+	private static Transitions deriveSelfLoop(BaseModel base, int state, double increment) {
+		int nActions = base.numActions;
+		int[] start = new int[base.successorStart.length];
+		int[] successors = new int[base.successorState.length + nActions];
+		double[] probabilities = new double[successors.length];
+
+		int k = 0;
+		for(int row=0; row<base.numStates*nActions; row++) {
+			boolean insertSelfLoop = row / nActions == state;
+
+			for(int j=base.successorStart[row]; j<base.successorStart[row+1]; j++) {
+				int sNext = base.successorState[j];
+				if(insertSelfLoop && sNext > state) {
+					successors[k++] = state;
+					insertSelfLoop = false;
+				}
+				if(sNext == state) {
+					insertSelfLoop = false;
+				}
+				successors[k] = sNext;
+				probabilities[k] = base.successorProbability[j];
+				k++;
+			}
+			if(insertSelfLoop) {
+				successors[k++] = state;
+			}
+
+			if(row / nActions == state) {
+				for(int j=start[row]; j<k; j++) {
+					if(successors[j] == state) {
+						probabilities[j] += increment;
+					}
+				}
+				for(int j=start[row]; j<k; j++) {
+					probabilities[j] = probabilities[j] / (1.0+increment);
+				}
+			}
+			start[row+1] = k;
+		}
+
+		Transitions transitions = new Transitions();
+		transitions.successorStart = start;
+		transitions.successorState = Arrays.copyOf(successors, k);
+		transitions.successorProbability = Arrays.copyOf(probabilities, k);
+		return transitions;
+	}
+
+	private static synchronized BaseModel getBaseModel() {
+		if(baseModel == null) {
+			baseModel = parse(MODEL_FILE);
+		}
+		return baseModel;
+	}
+
+	/**
+	 * Read a model file in a single pass
+	 */
+	private static BaseModel parse(String fileName) {
 		BufferedReader reader = null;
 		try {
-			reader = new BufferedReader(new FileReader("synthetic_ad.txt"));
+			reader = new BufferedReader(new FileReader(fileName));
+
+			int numStates = Integer.parseInt(reader.readLine().trim());
+			int numActions = Integer.parseInt(reader.readLine().trim());
 
-			int initialState = 0;
-			int numStates = Integer.valueOf(reader.readLine());
-			int numActions = Integer.valueOf(reader.readLine());
+			LineScanner scanner = new LineScanner();
+			scanner.reset(reader.readLine());
+			scanner.skip(); // "Discount"
+			double discountFactor = scanner.nextDouble();
 
-			double[][] costFunction = new double[numStates][numActions];
-			Tstate = new int[numStates][numActions][];
-			Tprob = new double[numStates][numActions][];
-			
-			double[][] rewardFunction = new double[numStates][numActions];
-			double[][][] transitionFunction = new double[numStates][numActions][numStates];
+			BaseModel base = new BaseModel(numStates, numActions, discountFactor);
 
-			// discount factor, unused
-			reader.readLine();
+			// successors are listed per action, collect them per (s,a) before building the rows
+			int[][] rowStates = new int[numStates*numActions][];
+			double[][] rowProbabilities = new double[numStates*numActions][];
+			int nnz = 0;
 
 			// repeated action description.
 			for (int a = 0; a < numActions; a++) {
-				int actionID = Integer.valueOf(reader.readLine());
-				
+				int actionID = Integer.parseInt(reader.readLine().trim());
 				if (a != actionID) {
 					throw new RuntimeException("Unexpected action ID (" + a + " != " + actionID + ").");
 				}
-				
-				// define reward
-				rewardFunction[9][a] = 1000.0;
 
-				String[] chunks = null;
 				for (int s = 0; s < numStates; s++) {
-					chunks = reader.readLine().split(" ");
+					scanner.reset(reader.readLine());
 
-					int stateID = Integer.valueOf(chunks[0]);
+					int stateID = scanner.nextInt();
 					if (s != stateID) {
 						throw new RuntimeException("Unexpected state ID (" + s + " != " + stateID + ").");
 					}
 
-					int numDests = (chunks.length-1)/2;
-					Tstate[s][a] = new int[numDests];
-					Tprob[s][a] = new double[numDests];
-
+					int numDests = scanner.countRemaining() / 2;
+					int[] states = new int[numDests];
+					double[] probabilities = new double[numDests];
 					for (int i = 0; i < numDests; i++) {
-						int sNext = Integer.valueOf(chunks[1+(i*2)].substring(1));
-						double prob = Double.valueOf(chunks[2+(i*2)].substring(0, chunks[2+(i*2)].length()-1));
-
-						Tstate[s][a][i] = sNext;
-						Tprob[s][a][i] = prob;
-						
-						transitionFunction[s][a][sNext] = prob;
+						states[i] = scanner.nextInt();
+						probabilities[i] = scanner.nextDouble();
 					}
+					rowStates[s*numActions+a] = states;
+					rowProbabilities[s*numActions+a] = probabilities;
+					nnz += numDests;
 				}
 
-				// Rewards, unused.
-				reader.readLine();
+				// reward (s r) ...
+				scanner.reset(reader.readLine());
+				scanner.skip();
+				while (scanner.hasNext()) {
+					int s = scanner.nextInt();
+					base.rewards[s][a] = scanner.nextDouble();
+				}
 
-				// Resource costs, unused.
-				reader.readLine();
-				
-			}
-			
-			// change transitions for state 7
-			for(int a=0; a<numActions; a++) {
-				double increment = 0.7;
-				transitionFunction[7][a][7] += increment;
-				
-				for(int sNext=0; sNext<numStates; sNext++) {
-					transitionFunction[7][a][sNext] = transitionFunction[7][a][sNext] / (1.0+increment);
+				// cost (s c) ...
+				scanner.reset(reader.readLine());
+				scanner.skip();
+				while (scanner.hasNext()) {
+					int s = scanner.nextInt();
+					base.costs[s][a] = scanner.nextDouble();
 				}
 			}
-			
-			cmdp = new CMDP(numStates, numActions, initialState, 0.95, costFunction);
-			cmdp.setRewardFunction(rewardFunction);
-			cmdp.setTransitionFunction(transitionFunction);
+
+			base.setRows(rowStates, rowProbabilities, nnz);
+			return base;
 		} catch (IOException ex) {
 			throw new RuntimeException(ex);
 		} finally {
@@ -175,7 +274,148 @@ public class UserGenerator {
 				} catch (IOException e) { }
 			}
 		}
-		
-		return cmdp;
+	}
+
+	/**
+	 * Transitions in compressed sparse row form
+	 */
+	private static class Transitions {
+		protected int[] successorStart;
+		protected int[] successorState;
+		protected double[] successorProbability;
+	}
+
+	/**
+	 * Model as given in a file
+	 */
+	private static class BaseModel extends Transitions {
+		private final int numStates;
+		private final int numActions;
+		private final double discountFactor;
+		private final double[][] rewards;
+		private final double[][] costs;
+
+		public BaseModel(int numStates, int numActions, double discountFactor) {
+			this.numStates = numStates;
+			this.numActions = numActions;
+			this.discountFactor = discountFactor;
+			this.rewards = new double[numStates][numActions];
+			this.costs = new double[numStates][numActions];
+		}
+
+		/**
+		 * Build sorted rows, dropping zero probabilities
+		 */
+		public void setRows(int[][] rowStates, double[][] rowProbabilities, int nnz) {
+			successorStart = new int[numStates*numActions+1];
+			successorState = new int[nnz];
+			successorProbability = new double[nnz];
+
+			int k = 0;
+			for(int row=0; row<rowStates.length; row++) {
+				int start = k;
+				for(int i=0; i<rowStates[row].length; i++) {
+					if(rowProbabilities[row][i] != 0.0) {
+						// insertion sort by successor state, rows are short
+						int j = k;
+						while(j > start && successorState[j-1] > rowStates[row][i]) {
+							successorState[j] = successorState[j-1];
+							successorProbability[j] = successorProbability[j-1];
+							j--;
+						}
+						successorState[j] = rowStates[row][i];
+						successorProbability[j] = rowProbabilities[row][i];
+						k++;
+					}
+				}
+				successorStart[row+1] = k;
+			}
+
+			if(k < nnz) {
+				successorState = Arrays.copyOf(successorState, k);
+				successorProbability = Arrays.copyOf(successorProbability, k);
+			}
+		}
+	}
+
+	/**
+	 * Tokenizer for lines such as "3 (4 0.25) (14 0.75)", treating spaces and parentheses as separators
+	 */
+	private static class LineScanner {
+		private String line;
+		private int pos;
+
+		public void reset(String line) {
+			this.line = line == null ? "" : line;
+			this.pos = 0;
+			skipSeparators();
+		}
+
+		public boolean hasNext() {
+			return pos < line.length();
+		}
+
+		public void skip() {
+			pos = tokenEnd();
+			skipSeparators();
+		}
+
+		public int nextInt() {
+			int end = tokenEnd();
+			boolean negative = line.charAt(pos) == '-';
+			int value = 0;
+			for(int i=negative ? pos+1 : pos; i<end; i++) {
+				char c = line.charAt(i);
+				if(c < '0' || c > '9') {
+					throw new NumberFormatException("Invalid integer in: " + line);
+				}
+				value = 10*value + (c - '0');
+			}
+			pos = end;
+			skipSeparators();
+			return negative ? -value : value;
+		}
+
+		public double nextDouble() {
+			int end = tokenEnd();
+			double value = Double.parseDouble(line.substring(pos, end));
+			pos = end;
+			skipSeparators();
+			return value;
+		}
+
+		/**
+		 * Count the tokens left on the line
+		 */
+		public int countRemaining() {
+			int count = 0;
+			boolean inToken = false;
+			for(int i=pos; i<line.length(); i++) {
+				boolean separator = isSeparator(line.charAt(i));
+				if(!separator && !inToken) {
+					count++;
+				}
+				inToken = !separator;
+			}
+			return count;
+		}
+
+		private int tokenEnd() {
+			int end = pos;
+			while(end < line.length() && !isSeparator(line.charAt(end))) {
+				end++;
+			}
+			return end;
+		}
+
+		private void skipSeparators() {
+			while(pos < line.length() && isSeparator(line.charAt(pos))) {
+				pos++;
+			}
+		}
+
+		private static boolean isSeparator(char c) {
+			return c == ' ' || c == '(' || c == ')' || c == '\t';
+		}
 	}
 }
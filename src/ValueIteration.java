@@ -0,0 +1,717 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Value iteration on the sparse transition model. Rewards are passed as a flat
+ * array indexed by s*nActions+a, so the same engine serves plain rewards and
+ * Lagrangian rewards R - lambda*C. Instances only hold configuration and can be
+ * shared between threads.
+ * Prioritized mode backs up one state at a time, the state with the largest
+ * bound on the distance of its value to its backup, and raises the bounds of
+ * its predecessors by gamma * P(s|p,a) times the change. A backup solves the
+ * self-loop of the state exactly, so a state is not revisited just because it
+ * leads back to itself. States whose bounds stay below the threshold are never
+ * backed up again, so after an initial pass over the model the work depends on
+ * the part of the model whose values change.
+ */
+public class ValueIteration {
+	private static final int SEQUENTIAL_STATES = 2048;
+
+	public enum Mode {
+		JACOBI,
+		GAUSS_SEIDEL,
+		PRIORITIZED
+	}
+
+	private Mode mode = Mode.GAUSS_SEIDEL;
+	private boolean parallel = false;
+	private double epsilon = 1e-6;
+	private int maxIterations = 1000000;
+
+	/**
+	 * Set update mode. Gauss-Seidel uses new values within a sweep, Jacobi only
+	 * after the sweep and is the mode used for parallel sweeps.
+	 * @param mode update mode
+	 */
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * Split sweeps over states across the fork-join pool, implies Jacobi
+	 * updates. In prioritized mode every thread owns a block of states and
+	 * backs them up asynchronously.
+	 * @param parallel true to run sweeps in parallel
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * Set suboptimality of the returned greedy policy
+	 * @param epsilon maximum loss in value of the greedy policy
+	 */
+	public void setEpsilon(double epsilon) {
+		this.epsilon = epsilon;
+	}
+
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * Run value iteration until the greedy policy is epsilon-optimal
+	 * @param mdp model providing transitions
+	 * @param discountFactor discount factor
+	 * @param rewards reward of (s,a) at s*nActions+a
+	 * @param initialValues starting values, or null to start from zero
+	 * @return values, greedy policy and convergence information
+	 */
+	public Result solve(MDP mdp, double discountFactor, double[] rewards, double[] initialValues) {
+		if(mode == Mode.PRIORITIZED) {
+			return solvePrioritized(mdp, discountFactor, rewards, initialValues);
+		}
+
+		int nStates = mdp.getNumStates();
+		double[] V = initialValues == null ? new double[nStates] : initialValues.clone();
+		double[] next = new double[nStates];
+		int[] policy = new int[nStates];
+
+		// ||V' - V|| below this bound makes the greedy policy epsilon-optimal,
+		// without discounting one sweep is exact and the bound would skip it
+		double threshold = discountFactor > 0.0 ? epsilon * (1.0 - discountFactor) / (2.0 * discountFactor) : 0.0;
+		boolean jacobi = parallel || mode == Mode.JACOBI;
+
+		int iteration = 0;
+		double residual = Double.POSITIVE_INFINITY;
+		while(residual > threshold && iteration < maxIterations) {
+			if(parallel && nStates > SEQUENTIAL_STATES) {
+				residual = ForkJoinPool.commonPool().invoke(new Sweep(mdp, discountFactor, rewards, V, next, policy, 0, nStates));
+			}
+			else {
+				residual = sweep(mdp, discountFactor, rewards, V, jacobi ? next : V, policy, 0, nStates);
+			}
+
+			if(jacobi) {
+				double[] tmp = V;
+				V = next;
+				next = tmp;
+			}
+			iteration++;
+		}
+
+		// policy greedy with respect to the final values
+		sweep(mdp, discountFactor, rewards, V, next, policy, 0, nStates);
+
+		return new Result(V, policy, iteration, residual);
+	}
+
+	/**
+	 * Prioritized sweeping, the iterations of the result are the number of
+	 * single-state backups and the residual bounds the final Bellman error
+	 */
+	private Result solvePrioritized(MDP mdp, double discountFactor, double[] rewards, double[] initialValues) {
+		int nStates = mdp.getNumStates();
+		// the Bellman error of a state is at most (1 + gamma) times the distance to its backup,
+		// without discounting each state needs exactly one backup
+		double threshold = discountFactor > 0.0 ? epsilon * (1.0 - discountFactor) / (2.0 * discountFactor * (1.0 + discountFactor)) : 0.0;
+
+		AtomicLongArray V = new AtomicLongArray(nStates);
+		if(initialValues != null) {
+			for(int s=0; s<nStates; s++) {
+				V.set(s, Double.doubleToRawLongBits(initialValues[s]));
+			}
+		}
+
+		int nWorkers = 1;
+		if(parallel && nStates > SEQUENTIAL_STATES) {
+			nWorkers = Math.min(Runtime.getRuntime().availableProcessors(), nStates / SEQUENTIAL_STATES);
+		}
+		Asynchronous shared = new Asynchronous(mdp, discountFactor, rewards, V, threshold, nWorkers);
+		int blockSize = (nStates + nWorkers - 1) / nWorkers;
+		for(int w=0; w<nWorkers; w++) {
+			int from = w * blockSize;
+			int to = Math.min(nStates, from + blockSize);
+			shared.workers[w] = new PrioritizedSweep(shared, from, to, (long) maxIterations * (to - from));
+		}
+
+		if(nWorkers == 1) {
+			shared.workers[0].run();
+		}
+		else {
+			Thread[] threads = new Thread[nWorkers];
+			for(int w=0; w<nWorkers; w++) {
+				threads[w] = new Thread(shared.workers[w], "prioritized-vi-" + w);
+				shared.workers[w].thread = threads[w];
+			}
+			for(Thread thread : threads) {
+				thread.start();
+			}
+			for(Thread thread : threads) {
+				try {
+					thread.join();
+				} catch (InterruptedException ex) {
+					shared.fail(ex);
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+		if(shared.failure != null) {
+			throw new RuntimeException(shared.failure);
+		}
+
+		double[] values = new double[nStates];
+		for(int s=0; s<nStates; s++) {
+			values[s] = Double.longBitsToDouble(V.get(s));
+		}
+		long backups = 0;
+		double residual = 0.0;
+		for(PrioritizedSweep worker : shared.workers) {
+			backups += worker.backups;
+			residual = Math.max(residual, (1.0 + discountFactor) * worker.maxPriority());
+		}
+
+		// policy greedy with respect to the final values
+		int[] policy = new int[nStates];
+		sweep(mdp, discountFactor, rewards, values, new double[nStates], policy, 0, nStates);
+
+		return new Result(values, policy, (int) Math.min(backups, Integer.MAX_VALUE), residual);
+	}
+
+	/**
+	 * Evaluate a deterministic policy with Gauss-Seidel sweeps
+	 * @param mdp model providing transitions
+	 * @param discountFactor discount factor
+	 * @param rewards reward of (s,a) at s*nActions+a
+	 * @param policy action of each state
+	 * @param tolerance stop when a sweep changes no value by more than this
+	 * @return value of each state
+	 */
+	public static double[] evaluate(MDP mdp, double discountFactor, double[] rewards, int[] policy, double tolerance) {
+		int nActions = mdp.getNumActions();
+		int[] start = mdp.getSuccessorStarts();
+		int[] successor = mdp.getSuccessorStates();
+		double[] probability = mdp.getSuccessorProbabilities();
+		double[] V = new double[mdp.getNumStates()];
+
+		double delta;
+		do {
+			delta = 0.0;
+			for(int s=0; s<V.length; s++) {
+				int sa = s*nActions+policy[s];
+				double future = 0.0;
+				for(int k=start[sa]; k<start[sa+1]; k++) {
+					future += probability[k] * V[successor[k]];
+				}
+
+				double v = rewards[sa] + discountFactor * future;
+				delta = Math.max(delta, Math.abs(v - V[s]));
+				V[s] = v;
+			}
+		} while(delta > tolerance);
+
+		return V;
+	}
+
+	/**
+	 * Bellman backup of states from..to-1, reading V and writing target
+	 * @return largest change of a value
+	 */
+	private static double sweep(MDP mdp, double discountFactor, double[] rewards, double[] V, double[] target, int[] policy, int from, int to) {
+		int nActions = mdp.getNumActions();
+		int[] start = mdp.getSuccessorStarts();
+		int[] successor = mdp.getSuccessorStates();
+		double[] probability = mdp.getSuccessorProbabilities();
+		double residual = 0.0;
+
+		for(int s=from; s<to; s++) {
+			double best = Double.NEGATIVE_INFINITY;
+			int bestAction = 0;
+
+			int end = start[s*nActions];
+			for(int a=0; a<nActions; a++) {
+				int sa = s*nActions+a;
+				int begin = end;
+				end = start[sa+1];
+				double future = 0.0;
+				for(int k=begin; k<end; k++) {
+					future += probability[k] * V[successor[k]];
+				}
+
+				double q = rewards[sa] + discountFactor * future;
+				if(q > best) {
+					best = q;
+					bestAction = a;
+				}
+			}
+
+			residual = Math.max(residual, Math.abs(best - V[s]));
+			target[s] = best;
+			policy[s] = bestAction;
+		}
+
+		return residual;
+	}
+
+	/**
+	 * Flat reward array of a model, shared with the model and not to be modified
+	 * @param mdp model
+	 * @return reward of (s,a) at s*nActions+a
+	 */
+	public static double[] rewardVector(MDP mdp) {
+		return mdp.getRewards();
+	}
+
+	/**
+	 * Flat cost array of a model, shared with the model and not to be modified
+	 * @param cmdp model
+	 * @return cost of (s,a) at s*nActions+a
+	 */
+	public static double[] costVector(CMDP cmdp) {
+		return cmdp.getCosts();
+	}
+
+	private static class Sweep extends RecursiveTask<Double> {
+		private static final long serialVersionUID = 1L;
+
+		private final MDP mdp;
+		private final double discountFactor;
+		private final double[] rewards;
+		private final double[] V;
+		private final double[] target;
+		private final int[] policy;
+		private final int from;
+		private final int to;
+
+		public Sweep(MDP mdp, double discountFactor, double[] rewards, double[] V, double[] target, int[] policy, int from, int to) {
+			this.mdp = mdp;
+			this.discountFactor = discountFactor;
+			this.rewards = rewards;
+			this.V = V;
+			this.target = target;
+			this.policy = policy;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected Double compute() {
+			if(to - from <= SEQUENTIAL_STATES) {
+				return sweep(mdp, discountFactor, rewards, V, target, policy, from, to);
+			}
+
+			int mid = (from + to) >>> 1;
+			Sweep left = new Sweep(mdp, discountFactor, rewards, V, target, policy, from, mid);
+			left.fork();
+			double right = new Sweep(mdp, discountFactor, rewards, V, target, policy, mid, to).compute();
+			return Math.max(right, left.join());
+		}
+	}
+
+	/**
+	 * Data shared by the workers of a prioritized solve. Values are double
+	 * bits in an AtomicLongArray, a state is only written by the worker
+	 * owning it. Raises of the bound of a state owned by another worker are
+	 * added to pending and the state is put in the inbox of its owner once.
+	 * work counts busy workers plus messages in flight, the solve is done
+	 * when it drops to zero. Idle workers are parked and unparked by the
+	 * next message for them or by the end of the solve.
+	 */
+	private static class Asynchronous {
+		private final double discountFactor;
+		private final double[] rewards;
+		private final int nActions;
+		private final int[] start;
+		private final int[] successor;
+		private final double[] probability;
+		private final double[] selfProbability;
+		private final AtomicLongArray V;
+		private final double threshold;
+
+		// predecessors p of s' are predState[predStart[s']..predStart[s'+1]), predWeight is the largest P(s'|p,a) / (1 - gamma * P(p|p,a))
+		private final int[] predStart;
+		private final int[] predState;
+		private final double[] predWeight;
+
+		private final PrioritizedSweep[] workers;
+		private final int blockSize;
+		private final AtomicLongArray pending;
+		private final AtomicIntegerArray queued;
+		private final AtomicInteger work;
+		private volatile Throwable failure = null;
+
+		public Asynchronous(MDP mdp, double discountFactor, double[] rewards, AtomicLongArray V, double threshold, int nWorkers) {
+			int nStates = mdp.getNumStates();
+			this.discountFactor = discountFactor;
+			this.rewards = rewards;
+			this.nActions = mdp.getNumActions();
+			this.start = mdp.getSuccessorStarts();
+			this.successor = mdp.getSuccessorStates();
+			this.probability = mdp.getSuccessorProbabilities();
+			this.V = V;
+			this.threshold = threshold;
+
+			selfProbability = new double[nStates*nActions];
+			for(int sa=0; sa<nStates*nActions; sa++) {
+				for(int k=start[sa]; k<start[sa+1]; k++) {
+					if(successor[k] == sa / nActions) {
+						selfProbability[sa] += probability[k];
+					}
+				}
+			}
+
+			// count distinct predecessors, then fill them in state order so duplicates are adjacent
+			predStart = new int[nStates+1];
+			int[] last = new int[nStates];
+			Arrays.fill(last, -1);
+			for(int s=0; s<nStates; s++) {
+				for(int k=start[s*nActions]; k<start[(s+1)*nActions]; k++) {
+					if(last[successor[k]] != s) {
+						last[successor[k]] = s;
+						predStart[successor[k]+1]++;
+					}
+				}
+			}
+			for(int s=0; s<nStates; s++) {
+				predStart[s+1] += predStart[s];
+			}
+			predState = new int[predStart[nStates]];
+			predWeight = new double[predStart[nStates]];
+			int[] fill = Arrays.copyOf(predStart, nStates);
+			Arrays.fill(last, -1);
+			for(int s=0; s<nStates; s++) {
+				for(int sa=s*nActions; sa<(s+1)*nActions; sa++) {
+					for(int k=start[sa]; k<start[sa+1]; k++) {
+						int sNext = successor[k];
+						double weight = probability[k] / (1.0 - discountFactor * selfProbability[sa]);
+						if(last[sNext] != s) {
+							last[sNext] = s;
+							predState[fill[sNext]] = s;
+							predWeight[fill[sNext]] = weight;
+							fill[sNext]++;
+						}
+						else {
+							predWeight[fill[sNext]-1] = Math.max(predWeight[fill[sNext]-1], weight);
+						}
+					}
+				}
+			}
+
+			this.workers = new PrioritizedSweep[nWorkers];
+			this.blockSize = (nStates + nWorkers - 1) / nWorkers;
+			this.pending = nWorkers > 1 ? new AtomicLongArray(nStates) : null;
+			this.queued = nWorkers > 1 ? new AtomicIntegerArray(nStates) : null;
+			this.work = new AtomicInteger(nWorkers);
+		}
+
+		/**
+		 * Stop all workers after an error
+		 */
+		public void fail(Throwable ex) {
+			failure = ex;
+			wakeAll();
+		}
+
+		public void wakeAll() {
+			for(PrioritizedSweep worker : workers) {
+				LockSupport.unpark(worker.thread);
+			}
+		}
+
+		/**
+		 * Value of one state that satisfies its Bellman equation for the
+		 * current values of the other states
+		 */
+		public double backup(int s) {
+			double best = Double.NEGATIVE_INFINITY;
+			for(int a=0; a<nActions; a++) {
+				int sa = s*nActions+a;
+				double future = 0.0;
+				for(int k=start[sa]; k<start[sa+1]; k++) {
+					if(successor[k] != s) {
+						future += probability[k] * Double.longBitsToDouble(V.get(successor[k]));
+					}
+				}
+				best = Math.max(best, (rewards[sa] + discountFactor * future) / (1.0 - discountFactor * selfProbability[sa]));
+			}
+			return best;
+		}
+	}
+
+	/**
+	 * Worker backing up the states from..to-1 in order of their bound on the
+	 * Bellman error, kept in an indexed max-heap. States enter the heap when
+	 * their bound exceeds the threshold.
+	 */
+	private static class PrioritizedSweep implements Runnable {
+		private final Asynchronous shared;
+		private final int from;
+		private final long maxBackups;
+		private final IntInbox inbox;
+		private volatile Thread thread = null;
+
+		private final double[] priority;
+		private final int[] heap;
+		private final int[] position;
+		private int heapSize = 0;
+		private long backups = 0;
+
+		public PrioritizedSweep(Asynchronous shared, int from, int to, long maxBackups) {
+			this.shared = shared;
+			this.from = from;
+			this.maxBackups = maxBackups;
+			this.priority = new double[to - from];
+			this.heap = new int[to - from];
+			this.position = new int[to - from];
+			Arrays.fill(position, -1);
+			this.inbox = new IntInbox(Math.max(1, to - from));
+		}
+
+		public void run() {
+			try {
+				process();
+			} catch (Throwable ex) {
+				shared.fail(ex);
+			}
+		}
+
+		private void process() {
+			AtomicLongArray V = shared.V;
+			for(int i=0; i<priority.length; i++) {
+				raise(i, Math.abs(shared.backup(from+i) - Double.longBitsToDouble(V.get(from+i))));
+			}
+
+			while(shared.failure == null) {
+				drainInbox();
+				if(heapSize > 0 && backups < maxBackups) {
+					int s = from + pop();
+					double old = Double.longBitsToDouble(V.get(s));
+					double v = shared.backup(s);
+					V.set(s, Double.doubleToRawLongBits(v));
+					backups++;
+
+					double delta = Math.abs(v - old);
+					if(delta > 0.0) {
+						double scaled = shared.discountFactor * delta;
+						for(int k=shared.predStart[s]; k<shared.predStart[s+1]; k++) {
+							if(shared.predState[k] != s) {
+								raiseState(shared.predState[k], scaled * shared.predWeight[k]);
+							}
+						}
+					}
+					continue;
+				}
+
+				if(shared.workers.length == 1) {
+					return;
+				}
+
+				// park until a message arrives, the last worker to become idle ends the solve
+				if(shared.work.decrementAndGet() == 0) {
+					shared.wakeAll();
+					return;
+				}
+				while(inbox.isEmpty()) {
+					if(shared.work.get() == 0 || shared.failure != null) {
+						return;
+					}
+					LockSupport.park(this);
+				}
+				shared.work.incrementAndGet();
+			}
+		}
+
+		/**
+		 * Raise the bound of a state owned by any worker
+		 */
+		private void raiseState(int p, double amount) {
+			int owner = p / shared.blockSize;
+			if(shared.workers[owner] == this) {
+				raise(p - from, priority[p - from] + amount);
+				return;
+			}
+
+			AtomicLongArray pending = shared.pending;
+			long bits;
+			do {
+				bits = pending.get(p);
+			} while(!pending.compareAndSet(p, bits, Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + amount)));
+
+			if(shared.queued.compareAndSet(p, 0, 1)) {
+				shared.work.incrementAndGet();
+				shared.workers[owner].inbox.add(p);
+				LockSupport.unpark(shared.workers[owner].thread);
+			}
+		}
+
+		private void drainInbox() {
+			int p;
+			while((p = inbox.poll()) >= 0) {
+				shared.queued.set(p, 0);
+				double amount = Double.longBitsToDouble(shared.pending.getAndSet(p, 0L));
+				raise(p - from, priority[p - from] + amount);
+				shared.work.decrementAndGet();
+			}
+		}
+
+		public double maxPriority() {
+			double max = 0.0;
+			for(double x : priority) {
+				max = Math.max(max, x);
+			}
+			return max;
+		}
+
+		/**
+		 * Set the bound of local state i, it enters or moves up the heap if it exceeds the threshold
+		 */
+		private void raise(int i, double value) {
+			priority[i] = value;
+			if(value <= shared.threshold) {
+				return;
+			}
+			if(position[i] < 0) {
+				position[i] = heapSize;
+				heap[heapSize++] = i;
+			}
+			siftUp(position[i]);
+		}
+
+		/**
+		 * Remove the local state with the largest bound, its bound drops to zero
+		 */
+		private int pop() {
+			int top = heap[0];
+			position[top] = -1;
+			priority[top] = 0.0;
+			heapSize--;
+			if(heapSize > 0) {
+				heap[0] = heap[heapSize];
+				position[heap[0]] = 0;
+				siftDown(0);
+			}
+			return top;
+		}
+
+		private void siftUp(int k) {
+			int i = heap[k];
+			while(k > 0) {
+				int parent = (k-1) >>> 1;
+				if(priority[heap[parent]] >= priority[i]) {
+					break;
+				}
+				heap[k] = heap[parent];
+				position[heap[k]] = k;
+				k = parent;
+			}
+			heap[k] = i;
+			position[i] = k;
+		}
+
+		private void siftDown(int k) {
+			int i = heap[k];
+			while(true) {
+				int child = 2*k+1;
+				if(child >= heapSize) {
+					break;
+				}
+				if(child+1 < heapSize && priority[heap[child+1]] > priority[heap[child]]) {
+					child++;
+				}
+				if(priority[heap[child]] <= priority[i]) {
+					break;
+				}
+				heap[k] = heap[child];
+				position[heap[k]] = k;
+				k = child;
+			}
+			heap[k] = i;
+			position[i] = k;
+		}
+	}
+
+	/**
+	 * Queue of states with many producers and one consumer. A state is in at
+	 * most one inbox at a time, so the capacity of an inbox is the number of
+	 * states of its owner. A producer reserves a slot and then publishes the
+	 * state in it, the consumer stops at a slot that is not yet published.
+	 */
+	private static class IntInbox {
+		private final AtomicIntegerArray slots;
+		private final AtomicLong tail = new AtomicLong();
+		private long head = 0;
+
+		public IntInbox(int capacity) {
+			slots = new AtomicIntegerArray(capacity);
+			for(int i=0; i<capacity; i++) {
+				slots.set(i, -1);
+			}
+		}
+
+		public void add(int s) {
+			int slot = (int) (tail.getAndIncrement() % slots.length());
+			// the previous state of the slot was taken, wait until the consumer has released it
+			while(!slots.compareAndSet(slot, -1, s)) {
+				Thread.yield();
+			}
+		}
+
+		/**
+		 * Take the next state, only called by the consumer
+		 * @return state, -1 if there is none
+		 */
+		public int poll() {
+			int slot = (int) (head % slots.length());
+			int s = slots.get(slot);
+			if(s >= 0) {
+				slots.set(slot, -1);
+				head++;
+			}
+			return s;
+		}
+
+		public boolean isEmpty() {
+			return slots.get((int) (head % slots.length())) < 0;
+		}
+	}
+
+	public static class Result {
+		private final double[] values;
+		private final int[] policy;
+		private final int iterations;
+		private final double residual;
+
+		public Result(double[] values, int[] policy, int iterations, double residual) {
+			this.values = values;
+			this.policy = policy;
+			this.iterations = iterations;
+			this.residual = residual;
+		}
+
+		public double[] getValues() {
+			return values;
+		}
+
+		public int[] getPolicy() {
+			return policy;
+		}
+
+		public int getIterations() {
+			return iterations;
+		}
+
+		/**
+		 * Get largest value change of the last sweep
+		 * @return Bellman residual
+		 */
+		public double getResidual() {
+			return residual;
+		}
+	}
+}